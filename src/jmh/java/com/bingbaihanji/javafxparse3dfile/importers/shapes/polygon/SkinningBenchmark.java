@@ -0,0 +1,107 @@
+package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon;
+
+import com.bingbaihanji.javafxparse3dfile.importers.utils.geom.Joint;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.transform.Affine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Skins a synthetic rig with each SkinningMesh kernel. The vector kernels need a CPU
+ * with 256-bit double vectors, otherwise they measure the emulation of the vector API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Xmx4g"})
+public class SkinningBenchmark {
+
+    private static final int JOINTS = 64;
+
+    public enum Kernel {
+        SCALAR(false, false), PARALLEL(true, false), VECTOR(false, true), PARALLEL_VECTOR(true, true);
+
+        final boolean parallel;
+        final boolean vector;
+
+        Kernel(boolean parallel, boolean vector) {
+            this.parallel = parallel;
+            this.vector = vector;
+        }
+    }
+
+    @Param({"50000", "200000", "500000", "2000000"})
+    public int points;
+
+    @Param({"1", "4"})
+    public int influences;
+
+    @Param({"SCALAR", "PARALLEL", "VECTOR", "PARALLEL_VECTOR"})
+    public Kernel kernel;
+
+    private SkinningMesh mesh;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        List<Joint> joints = new ArrayList<>();
+        Group root = new Group();
+        Joint parent = null;
+        for (int j = 0; j < JOINTS; j++) {
+            Joint joint = new Joint();
+            joint.t.setX(random.nextDouble());
+            joint.t.setY(1);
+            joint.rx.setAngle(random.nextDouble() * 60);
+            joint.rz.setAngle(random.nextDouble() * 60);
+            if (parent == null || random.nextInt(3) == 0) {
+                root.getChildren().add(joint);
+            } else {
+                parent.getChildren().add(joint);
+            }
+            joints.add(joint);
+            parent = joint;
+        }
+        List<Parent> jointForest = new ArrayList<>();
+        for (Node node : root.getChildren()) {
+            jointForest.add((Parent) node);
+        }
+
+        float[] bindPoints = new float[points * 3];
+        for (int i = 0; i < bindPoints.length; i++) {
+            bindPoints[i] = random.nextFloat() * 10;
+        }
+        int[][] influenceJoints = new int[points][influences];
+        float[][] influenceWeights = new float[points][influences];
+        for (int i = 0; i < points; i++) {
+            // neighbouring points share most of their joints, like a real rig
+            int first = i * JOINTS / points;
+            for (int k = 0; k < influences; k++) {
+                influenceJoints[i][k] = (first + k) % JOINTS;
+                influenceWeights[i][k] = random.nextFloat();
+            }
+        }
+        Affine[] bindTransforms = new Affine[JOINTS];
+        for (int j = 0; j < JOINTS; j++) {
+            bindTransforms[j] = new Affine();
+            bindTransforms[j].appendRotation(random.nextDouble() * 90, 0, 0, 0, 0, 1, 1);
+            bindTransforms[j].appendTranslation(random.nextDouble(), 0, 1);
+        }
+        PolygonMesh bindMesh = new PolygonMesh(bindPoints, new float[0], new int[0][]);
+        mesh = new SkinningMesh(bindMesh, influenceJoints, influenceWeights, influences,
+                bindTransforms, new Affine(), joints, jointForest);
+        mesh.update();
+    }
+
+    @Benchmark
+    public void skin() {
+        mesh.skin(kernel.parallel, kernel.vector);
+    }
+}
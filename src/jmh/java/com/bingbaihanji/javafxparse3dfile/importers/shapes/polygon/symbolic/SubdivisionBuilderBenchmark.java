@@ -0,0 +1,89 @@
+package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic;
+
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.PolygonMesh;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh.BoundaryMode;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh.MapBorderMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subdivides a quad tube to level 2 with the half-edge SymbolicSubdivisionBuilder
+ * and with the object graph LegacySymbolicSubdivisionBuilder it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class SubdivisionBuilderBenchmark {
+
+    private static final int LEVEL = 2;
+
+    // quads around and along the tube, 62.5k and 250k quads
+    @Param({"250", "500"})
+    public int size;
+
+    @Param({"CREASE_EDGES", "CREASE_ALL"})
+    public BoundaryMode boundaryMode;
+
+    private PolygonMesh mesh;
+
+    @Setup
+    public void setUp() {
+        mesh = tube(size, size);
+    }
+
+    @Benchmark
+    public SymbolicPolygonMesh halfEdge() {
+        SymbolicPolygonMesh result = new SymbolicPolygonMesh(mesh);
+        for (int i = 0; i < LEVEL; i++) {
+            result = SymbolicSubdivisionBuilder.subdivide(result, boundaryMode, MapBorderMode.NOT_SMOOTH);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public SymbolicPolygonMesh objectGraph() {
+        SymbolicPolygonMesh result = new SymbolicPolygonMesh(mesh);
+        for (int i = 0; i < LEVEL; i++) {
+            result = LegacySymbolicSubdivisionBuilder.subdivide(result, boundaryMode, MapBorderMode.NOT_SMOOTH);
+        }
+        return result;
+    }
+
+    // Open tube of w x h quads, the texture seam runs along the tube
+    static PolygonMesh tube(int w, int h) {
+        float[] points = new float[w * (h + 1) * 3];
+        float[] texCoords = new float[(w + 1) * (h + 1) * 2];
+        for (int j = 0; j <= h; j++) {
+            for (int i = 0; i <= w; i++) {
+                if (i < w) {
+                    double a = 2 * Math.PI * i / w;
+                    int p = 3 * (j * w + i);
+                    points[p] = (float) Math.cos(a);
+                    points[p + 1] = (float) Math.sin(a);
+                    points[p + 2] = (float) j / h;
+                }
+                int t = 2 * (j * (w + 1) + i);
+                texCoords[t] = (float) i / w;
+                texCoords[t + 1] = (float) j / h;
+            }
+        }
+        int[][] faces = new int[w * h][];
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                int i1 = (i + 1) % w;
+                faces[j * w + i] = new int[] {
+                        j * w + i, j * (w + 1) + i,
+                        j * w + i1, j * (w + 1) + i + 1,
+                        (j + 1) * w + i1, (j + 1) * (w + 1) + i + 1,
+                        (j + 1) * w + i, (j + 1) * (w + 1) + i};
+            }
+        }
+        PolygonMesh mesh = new PolygonMesh(points, texCoords, faces);
+        mesh.getFaceSmoothingGroups().setAll(new int[faces.length]);
+        return mesh;
+    }
+}
@@ -1,10 +1,10 @@
 package com.bingbaihanji.javafxparse3dfile;
 
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.MeshUpdateScheduler;
 import com.bingbaihanji.javafxparse3dfile.parse.Importer3D;
 import com.bingbaihanji.javafxparse3dfile.view.BackgroundColorPicker;
 import com.bingbaihanji.javafxparse3dfile.view.ModelView;
 import com.bingbaihanji.javafxparse3dfile.view.menu.MenuNode;
-import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.*;
@@ -147,13 +147,7 @@ public class Main extends Application {
         });
 
 
-        AnimationTimer timer = new AnimationTimer() {
-            @Override
-            public void handle(long now) {
-                pointLight.setRotate(pointLight.getRotate() + 1);
-            }
-        };
-        timer.start();
+        MeshUpdateScheduler.getDefault().addPulseTask(() -> pointLight.setRotate(pointLight.getRotate() + 1));
     }
 
     public void setupKeyLighting(Scene scene, ModelView.SmartGroup group) {
@@ -28,6 +28,8 @@
  */
 package com.bingbaihanji.javafxparse3dfile.importers;
 
+import com.bingbaihanji.javafxparse3dfile.importers.animation.AnimationClip;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.MeshUpdatePolicy;
 import javafx.animation.Timeline;
 import javafx.scene.Group;
 import javafx.scene.Node;
@@ -105,4 +107,18 @@ public class Model3D {
     public Optional<Timeline> getTimeline() {
         return Optional.empty();
     }
+
+    /**
+     * @return baked animation associated with this model, played without a Timeline
+     */
+    public Optional<AnimationClip> getAnimation() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return policy deciding when the animated meshes of this model are updated, shared by all of them
+     */
+    public Optional<MeshUpdatePolicy> getUpdatePolicy() {
+        return Optional.empty();
+    }
 }
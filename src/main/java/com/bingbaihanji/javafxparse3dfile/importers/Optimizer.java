@@ -31,6 +31,10 @@
  */
 package com.bingbaihanji.javafxparse3dfile.importers;
 
+import com.bingbaihanji.javafxparse3dfile.importers.animation.AnimationChannel;
+import com.bingbaihanji.javafxparse3dfile.importers.animation.AnimationClip;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.BlendShape;
+
 import javafx.animation.Interpolator;
 import javafx.animation.KeyFrame;
 import javafx.animation.KeyValue;
@@ -42,17 +46,21 @@ import javafx.collections.ObservableFloatArray;
 import javafx.collections.ObservableIntegerArray;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.SortedList;
-import javafx.geometry.Point2D;
-import javafx.geometry.Point3D;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.shape.MeshView;
 import javafx.scene.shape.TriangleMesh;
+import javafx.scene.shape.VertexFormat;
+import javafx.scene.transform.Rotate;
 import javafx.scene.transform.Transform;
 import javafx.util.Duration;
 
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Optimizer to take 3D model and timeline loaded by one of the importers and do as much optimization on
@@ -60,12 +68,22 @@ import java.util.*;
  */
 public class Optimizer {
 
+    // Meshes with more elements than this are welded in parallel, in blocks of BLOCK_SIZE
+    private static final int PARALLEL_THRESHOLD = 16 * 1024;
+    private static final int BLOCK_SIZE = 2048;
+
     private Timeline timeline;
     private Node root;
     private Set<Transform> bound = new HashSet<>();
     private List<Parent> emptyParents = new ArrayList<>();
     private List<MeshView> meshViews = new ArrayList<>();
     private boolean convertToDiscrete = true;
+    private double linearTolerance, angularTolerance;
+    private Map<WritableValue<?>, Double> channelTolerances = new HashMap<>();
+    private Map<WritableValue<?>, AnimationChannel> animationChannels = new HashMap<>();
+    private float pointWeldTolerance, texCoordWeldTolerance, normalWeldTolerance;
+    private int vertexCacheSize;
+    private boolean vertexCacheLru;
 
     public Optimizer(Timeline timeline, Node root) {
         this(timeline, root, false);
@@ -77,6 +95,67 @@ public class Optimizer {
         this.convertToDiscrete = convertToDiscrete;
     }
 
+    /**
+     * Enables lossy keyframe reduction. A key is dropped when the curve through the
+     * remaining keys stays within the tolerance of its value; 0 disables the pass.
+     *
+     * @param linearTolerance tolerance for translations and scale, in scene units
+     * @param angularTolerance tolerance for rotation angles, in degrees
+     */
+    public void setKeyReductionTolerance(double linearTolerance, double angularTolerance) {
+        this.linearTolerance = linearTolerance;
+        this.angularTolerance = angularTolerance;
+    }
+
+    /**
+     * Overrides the key reduction tolerance for a single animated property.
+     */
+    public void setKeyReductionTolerance(WritableValue<?> target, double tolerance) {
+        channelTolerances.put(target, tolerance);
+    }
+
+    /**
+     * Sets the channels the timeline was built from, as returned by
+     * {@link Model3D#getAnimation()}. Key reduction reads the tangents of TANGENT keys
+     * from them; TANGENT keys without a matching channel key are kept, with their
+     * neighbours.
+     */
+    public void setAnimationClip(AnimationClip clip) {
+        animationChannels.clear();
+        for (AnimationChannel channel : clip.getChannels()) {
+            animationChannels.put(channel.getTarget(), channel);
+        }
+    }
+
+    /**
+     * Enables welding of near-duplicate mesh data. Points, texCoords or normals whose
+     * coordinates all differ by at most the tolerance are merged into the first of them,
+     * transitively; 0, the default, only merges equal values.
+     *
+     * @param pointTolerance tolerance for points, in mesh units
+     * @param texCoordTolerance tolerance for texCoords
+     * @param normalTolerance tolerance for normal components
+     */
+    public void setWeldTolerance(double pointTolerance, double texCoordTolerance, double normalTolerance) {
+        this.pointWeldTolerance = (float) pointTolerance;
+        this.texCoordWeldTolerance = (float) texCoordTolerance;
+        this.normalWeldTolerance = (float) normalTolerance;
+    }
+
+    /**
+     * Enables reordering of the faces of each mesh for the post-transform vertex cache,
+     * followed by reordering of its points, texCoords and normals in the order the faces
+     * first use them. The average cache miss ratio (ACMR) before and after is reported,
+     * simulated with a cache of the given size; 0, the default, disables the pass.
+     *
+     * @param cacheSize number of vertices in the simulated cache, 16 to 32 is typical
+     * @param lru true to simulate an LRU cache, false for FIFO
+     */
+    public void setVertexCacheOptimization(int cacheSize, boolean lru) {
+        this.vertexCacheSize = cacheSize;
+        this.vertexCacheLru = lru;
+    }
+
     private int trRemoved, trTotal, groupsTotal, trCandidate, trEmpty;
 
     public void optimize() {
@@ -88,6 +167,7 @@ public class Optimizer {
         emptyParents.clear();
 
         parseTimeline();
+        reduceKeys();
         optimize(root);
         removeEmptyGroups();
         optimizeMeshes();
@@ -143,66 +223,33 @@ public class Optimizer {
     }
 
     private void optimizeMeshes() {
+        // a mesh shared by several views is optimized once
+        Set<TriangleMesh> meshes = Collections.newSetFromMap(new IdentityHashMap<>());
+        meshViews.removeIf(meshView -> !meshes.add((TriangleMesh) meshView.getMesh()));
         optimizePoints();
         optimizeTexCoords();
+        optimizeNormals();
         optimizeFaces();
+        optimizeVertexCache();
     }
 
     private void optimizeFaces() {
+        // filter the meshes concurrently, but change them on this thread
+        List<FaceFilter> filters = meshViews.parallelStream()
+                .map(meshView -> new FaceFilter((TriangleMesh) meshView.getMesh()))
+                .collect(Collectors.toList());
         int total = 0, sameIndexes = 0, samePoints = 0, smallArea = 0;
-        ObservableIntegerArray newFaces = FXCollections.observableIntegerArray();
-        ObservableIntegerArray newFaceSmoothingGroups = FXCollections.observableIntegerArray();
-        for (MeshView meshView : meshViews) {
-            TriangleMesh mesh = (TriangleMesh) meshView.getMesh();
-            ObservableIntegerArray faces = mesh.getFaces();
-            ObservableIntegerArray faceSmoothingGroups = mesh.getFaceSmoothingGroups();
-            ObservableFloatArray points = mesh.getPoints();
-            newFaces.clear();
-            newFaces.ensureCapacity(faces.size());
-            newFaceSmoothingGroups.clear();
-            newFaceSmoothingGroups.ensureCapacity(faceSmoothingGroups.size());
-            int pointElementSize = mesh.getPointElementSize();
-            int faceElementSize = mesh.getFaceElementSize();
-            for (int i = 0; i < faces.size(); i += faceElementSize) {
-                total++;
-                int i1 = faces.get(i) * pointElementSize;
-                int i2 = faces.get(i + 2) * pointElementSize;
-                int i3 = faces.get(i + 4) * pointElementSize;
-                if (i1 == i2 || i1 == i3 || i2 == i3) {
-                    sameIndexes++;
-                    continue;
-                }
-                Point3D p1 = new Point3D(points.get(i1), points.get(i1 + 1), points.get(i1 + 2));
-                Point3D p2 = new Point3D(points.get(i2), points.get(i2 + 1), points.get(i2 + 2));
-                Point3D p3 = new Point3D(points.get(i3), points.get(i3 + 1), points.get(i3 + 2));
-                if (p1.equals(p2) || p1.equals(p3) || p2.equals(p3)) {
-                    samePoints++;
-                    continue;
-                }
-                double a = p1.distance(p2);
-                double b = p2.distance(p3);
-                double c = p3.distance(p1);
-                double p = (a + b + c) / 2;
-                double sqarea = p * (p - a) * (p - b) * (p - c);
-
-                final float DEAD_FACE = 1.f/1024/1024/1024/1024; // taken from MeshNormal code
-
-                if (sqarea < DEAD_FACE) {
-                    smallArea++;
-//                    System.out.printf("a = %e, b = %e, c = %e, sqarea = %e\n"
-//                            + "p1 = %s\np2 = %s\np3 = %s\n", a, b, c, sqarea, p1.toString(), p2.toString(), p3.toString());
-                    continue;
-                }
-                newFaces.addAll(faces, i, faceElementSize);
-                int fIndex = i / faceElementSize;
-                if (fIndex < faceSmoothingGroups.size()) {
-                    newFaceSmoothingGroups.addAll(faceSmoothingGroups.get(fIndex));
-                }
+        for (FaceFilter filter : filters) {
+            total += filter.total;
+            sameIndexes += filter.sameIndexes;
+            samePoints += filter.samePoints;
+            smallArea += filter.smallArea;
+            if (filter.faces != null) {
+                filter.mesh.getFaces().setAll(filter.faces);
+                filter.mesh.getFaceSmoothingGroups().setAll(filter.faceSmoothingGroups);
+                filter.mesh.getFaces().trimToSize();
+                filter.mesh.getFaceSmoothingGroups().trimToSize();
             }
-            faces.setAll(newFaces);
-            faceSmoothingGroups.setAll(newFaceSmoothingGroups);
-            faces.trimToSize();
-            faceSmoothingGroups.trimToSize();
         }
         int badTotal = sameIndexes + samePoints + smallArea;
         System.out.printf("Removed %d (%.2f%%) faces with same point indexes, "
@@ -215,59 +262,337 @@ public class Optimizer {
                 badTotal, 100d * badTotal / total, total);
     }
 
-    private void optimizePoints() {
-        int total = 0, duplicates = 0, check = 0;
+    /**
+     * Degenerate faces of a mesh: faces using a point twice, having two equal points or an
+     * area too small to have a normal. The faces are classified in parallel blocks that count
+     * their survivors, which are then copied along with their smoothing groups to offsets
+     * given by the prefix sum of the counts.
+     */
+    private static class FaceFilter {
 
-        Map<Point3D, Integer> pp = new HashMap<>();
-        ObservableIntegerArray reindex = FXCollections.observableIntegerArray();
-        ObservableFloatArray newPoints = FXCollections.observableFloatArray();
+        private static final float DEAD_FACE = 1.f/1024/1024/1024/1024; // taken from MeshNormal code
 
-        for (MeshView meshView : meshViews) {
-            TriangleMesh mesh = (TriangleMesh) meshView.getMesh();
-            ObservableFloatArray points = mesh.getPoints();
-            int pointElementSize = mesh.getPointElementSize();
-            int os = points.size() / pointElementSize;
-
-            pp.clear();
-            newPoints.clear();
-            newPoints.ensureCapacity(points.size());
-            reindex.clear();
-            reindex.resize(os);
-
-            for (int i = 0, oi = 0, ni = 0; i < points.size(); i += pointElementSize, oi++) {
-                float x = points.get(i);
-                float y = points.get(i + 1);
-                float z = points.get(i + 2);
-                Point3D p = new Point3D(x, y, z);
-                Integer index = pp.get(p);
-                if (index == null) {
-                    pp.put(p, ni);
-                    reindex.set(oi, ni);
-                    newPoints.addAll(x, y, z);
-                    ni++;
-                } else {
-                    reindex.set(oi, index);
+        private static final byte KEEP = 0, SAME_INDEXES = 1, SAME_POINTS = 2, SMALL_AREA = 3;
+
+        final TriangleMesh mesh;
+        final int total;
+        int sameIndexes, samePoints, smallArea;
+        int[] faces, faceSmoothingGroups; // null when no face is removed
+
+        FaceFilter(TriangleMesh mesh) {
+            this.mesh = mesh;
+            final int faceElementSize = mesh.getFaceElementSize();
+            final int pointElementSize = mesh.getPointElementSize();
+            final int vertexIndexSize = mesh.getVertexFormat().getVertexIndexSize();
+            final int pointOffset = mesh.getVertexFormat().getPointIndexOffset();
+            final int[] f = mesh.getFaces().toArray(null);
+            final int[] sg = mesh.getFaceSmoothingGroups().toArray(null);
+            final float[] p = mesh.getPoints().toArray(null);
+            final int n = f.length / faceElementSize;
+            total = n;
+
+            final byte[] state = new byte[n];
+            final int numBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            final int[] kept = new int[numBlocks + 1];
+            final int[] keptWithGroup = new int[numBlocks + 1];
+            blocks(n).forEach(b -> {
+                int k = 0, kg = 0;
+                for (int face = b * BLOCK_SIZE, e = Math.min(n, face + BLOCK_SIZE); face < e; face++) {
+                    int fi = face * faceElementSize + pointOffset;
+                    int i1 = f[fi] * pointElementSize;
+                    int i2 = f[fi + vertexIndexSize] * pointElementSize;
+                    int i3 = f[fi + 2 * vertexIndexSize] * pointElementSize;
+                    state[face] = classify(p, i1, i2, i3);
+                    if (state[face] == KEEP) {
+                        k++;
+                        if (face < sg.length) {
+                            kg++;
+                        }
+                    }
+                }
+                kept[b + 1] = k;
+                keptWithGroup[b + 1] = kg;
+            });
+            for (int b = 0; b < numBlocks; b++) {
+                kept[b + 1] += kept[b];
+                keptWithGroup[b + 1] += keptWithGroup[b];
+            }
+            for (byte s : state) {
+                switch (s) {
+                    case SAME_INDEXES: sameIndexes++; break;
+                    case SAME_POINTS: samePoints++; break;
+                    case SMALL_AREA: smallArea++; break;
+                }
+            }
+            if (kept[numBlocks] == n) {
+                return;
+            }
+
+            faces = new int[kept[numBlocks] * faceElementSize];
+            faceSmoothingGroups = new int[keptWithGroup[numBlocks]];
+            blocks(n).forEach(b -> {
+                int k = kept[b], kg = keptWithGroup[b];
+                for (int face = b * BLOCK_SIZE, e = Math.min(n, face + BLOCK_SIZE); face < e; face++) {
+                    if (state[face] == KEEP) {
+                        System.arraycopy(f, face * faceElementSize, faces, k++ * faceElementSize, faceElementSize);
+                        if (face < sg.length) {
+                            faceSmoothingGroups[kg++] = sg[face];
+                        }
+                    }
+                }
+            });
+        }
+
+        private static byte classify(float[] p, int i1, int i2, int i3) {
+            if (i1 == i2 || i1 == i3 || i2 == i3) {
+                return SAME_INDEXES;
+            }
+            if (samePoint(p, i1, i2) || samePoint(p, i1, i3) || samePoint(p, i2, i3)) {
+                return SAME_POINTS;
+            }
+            double ax = p[i2] - p[i1], ay = p[i2 + 1] - p[i1 + 1], az = p[i2 + 2] - p[i1 + 2];
+            double bx = p[i3] - p[i1], by = p[i3 + 1] - p[i1 + 1], bz = p[i3 + 2] - p[i1 + 2];
+            double cx = ay * bz - az * by, cy = az * bx - ax * bz, cz = ax * by - ay * bx;
+            // squared area is a quarter of the squared length of the cross product
+            return (cx * cx + cy * cy + cz * cz) / 4 < DEAD_FACE ? SMALL_AREA : KEEP;
+        }
+
+        private static boolean samePoint(float[] p, int a, int b) {
+            return p[a] == p[b] && p[a + 1] == p[b + 1] && p[a + 2] == p[b + 2];
+        }
+    }
+
+    private void optimizeVertexCache() {
+        if (vertexCacheSize <= 0) {
+            return;
+        }
+        // reorder the meshes concurrently, but change them on this thread
+        List<FaceOrder> orders = meshViews.parallelStream()
+                .map(meshView -> new FaceOrder((TriangleMesh) meshView.getMesh(), vertexCacheSize, vertexCacheLru))
+                .collect(Collectors.toList());
+        long faces = 0, missesBefore = 0, missesAfter = 0;
+        for (FaceOrder order : orders) {
+            TriangleMesh mesh = order.mesh;
+            faces += order.faces.length / mesh.getFaceElementSize();
+            missesBefore += order.missesBefore;
+            missesAfter += order.missesAfter;
+            mesh.getPoints().setAll(order.points);
+            mesh.getTexCoords().setAll(order.texCoords);
+            if (order.normals != null) {
+                mesh.getNormals().setAll(order.normals);
+            }
+            mesh.getFaces().setAll(order.faces);
+            mesh.getFaceSmoothingGroups().setAll(order.faceSmoothingGroups);
+        }
+        System.out.printf("Vertex cache ACMR %.3f before, %.3f after reordering %d faces (%s, %d vertices).\n",
+                (double) missesBefore / faces, (double) missesAfter / faces, faces,
+                vertexCacheLru ? "LRU" : "FIFO", vertexCacheSize);
+    }
+
+    /**
+     * Faces of a mesh reordered for the vertex cache with the Tipsify algorithm (Sander,
+     * Nehab and Barczak, "Fast Triangle Reordering for Vertex Locality and Reduced Overdraw"),
+     * followed by its points, texCoords and normals in first-use order. Vertices are identified
+     * by their point, which also splits them at texCoord seams on the GPU.
+     */
+    private static class FaceOrder {
+
+        final TriangleMesh mesh;
+        final int[] faces, faceSmoothingGroups;
+        final float[] points, texCoords, normals;
+        final long missesBefore, missesAfter;
+
+        FaceOrder(TriangleMesh mesh, int cacheSize, boolean lru) {
+            this.mesh = mesh;
+            final VertexFormat format = mesh.getVertexFormat();
+            final int faceElementSize = mesh.getFaceElementSize();
+            final int vertexIndexSize = format.getVertexIndexSize();
+            final int pointOffset = format.getPointIndexOffset();
+            final int[] f = mesh.getFaces().toArray(null);
+            final int[] sg = mesh.getFaceSmoothingGroups().toArray(null);
+            final int numFaces = f.length / faceElementSize;
+            final int numPoints = mesh.getPoints().size() / mesh.getPointElementSize();
+
+            int[] corners = new int[numFaces * 3];
+            for (int i = 0; i < corners.length; i++) {
+                corners[i] = f[i * vertexIndexSize + pointOffset];
+            }
+            missesBefore = cacheMisses(corners, numPoints, cacheSize, lru);
+            int[] order = tipsify(corners, numPoints, cacheSize);
+
+            faces = new int[f.length];
+            for (int i = 0; i < numFaces; i++) {
+                System.arraycopy(f, order[i] * faceElementSize, faces, i * faceElementSize, faceElementSize);
+                for (int c = 0; c < 3; c++) {
+                    corners[i * 3 + c] = f[order[i] * faceElementSize + c * vertexIndexSize + pointOffset];
                 }
             }
+            if (sg.length == numFaces) {
+                faceSmoothingGroups = new int[numFaces];
+                for (int i = 0; i < numFaces; i++) {
+                    faceSmoothingGroups[i] = sg[order[i]];
+                }
+            } else {
+                faceSmoothingGroups = sg; // empty, or not matching the faces anyway
+            }
+            missesAfter = cacheMisses(corners, numPoints, cacheSize, lru);
 
-            int ns = newPoints.size() / pointElementSize;
+            points = reorder(mesh.getPoints().toArray(null), mesh.getPointElementSize(), faces, vertexIndexSize, pointOffset);
+            texCoords = reorder(mesh.getTexCoords().toArray(null), mesh.getTexCoordElementSize(), faces, vertexIndexSize,
+                    format.getTexCoordIndexOffset());
+            normals = format.getNormalIndexOffset() < 0 ? null : reorder(mesh.getNormals().toArray(null),
+                    mesh.getNormalElementSize(), faces, vertexIndexSize, format.getNormalIndexOffset());
+        }
 
-            int d = os - ns;
-            duplicates += d;
-            total += os;
+        // Order of the faces, given by the point indices of their corners, for a FIFO cache
+        private static int[] tipsify(int[] corners, int numPoints, int cacheSize) {
+            final int numFaces = corners.length / 3;
+            // faces using each point
+            int[] start = new int[numPoints + 1];
+            for (int corner : corners) {
+                start[corner + 1]++;
+            }
+            for (int v = 0; v < numPoints; v++) {
+                start[v + 1] += start[v];
+            }
+            int[] adjacent = new int[corners.length];
+            int[] fill = Arrays.copyOf(start, numPoints);
+            for (int i = 0; i < corners.length; i++) {
+                adjacent[fill[corners[i]]++] = i / 3;
+            }
+            int[] live = new int[numPoints];
+            for (int v = 0; v < numPoints; v++) {
+                live[v] = start[v + 1] - start[v];
+            }
 
-            points.setAll(newPoints);
-            points.trimToSize();
+            int[] cacheTime = new int[numPoints];
+            boolean[] emitted = new boolean[numFaces];
+            int[] deadEnd = new int[corners.length];
+            int deadEndSize = 0;
+            int[] candidates = new int[corners.length];
+            int[] order = new int[numFaces];
+            int emittedFaces = 0;
+            int time = cacheSize + 1;
+            int cursor = 0;
+            int fanning = numFaces == 0 ? -1 : corners[0];
+            while (fanning >= 0) {
+                int numCandidates = 0;
+                for (int a = start[fanning]; a < start[fanning + 1]; a++) {
+                    int face = adjacent[a];
+                    if (emitted[face]) {
+                        continue;
+                    }
+                    emitted[face] = true;
+                    order[emittedFaces++] = face;
+                    for (int c = face * 3; c < face * 3 + 3; c++) {
+                        int v = corners[c];
+                        deadEnd[deadEndSize++] = v;
+                        candidates[numCandidates++] = v;
+                        live[v]--;
+                        if (time - cacheTime[v] > cacheSize) {
+                            cacheTime[v] = time++;
+                        }
+                    }
+                }
 
-            ObservableIntegerArray faces = mesh.getFaces();
-            for (int i = 0; i < faces.size(); i += 2) {
-                faces.set(i, reindex.get(faces.get(i)));
+                // next fanning vertex: the oldest candidate that stays in the cache while its
+                // remaining faces are emitted, else the newest one with faces left
+                fanning = -1;
+                int best = -1;
+                for (int c = 0; c < numCandidates; c++) {
+                    int v = candidates[c];
+                    if (live[v] > 0) {
+                        int priority = time - cacheTime[v] + 2 * live[v] <= cacheSize ? time - cacheTime[v] : 0;
+                        if (priority > best) {
+                            best = priority;
+                            fanning = v;
+                        }
+                    }
+                }
+                while (fanning < 0 && deadEndSize > 0) {
+                    int v = deadEnd[--deadEndSize];
+                    if (live[v] > 0) {
+                        fanning = v;
+                    }
+                }
+                while (fanning < 0 && cursor < numPoints) {
+                    if (live[cursor] > 0) {
+                        fanning = cursor;
+                    }
+                    cursor++;
+                }
             }
+            return order;
+        }
 
-//            System.out.printf("There are %d (%.2f%%) duplicate points out of %d total for mesh '%s'.\n",
-//                    d, 100d * d / os, os, meshView.getId());
+        // Number of corners missing the simulated vertex cache
+        private static long cacheMisses(int[] corners, int numPoints, int cacheSize, boolean lru) {
+            long misses = 0;
+            if (lru) {
+                int[] cache = new int[cacheSize];
+                int size = 0;
+                for (int v : corners) {
+                    int hit = 0;
+                    while (hit < size && cache[hit] != v) {
+                        hit++;
+                    }
+                    if (hit == size) {
+                        misses++;
+                        if (size < cacheSize) {
+                            size++;
+                        }
+                        hit = size - 1;
+                    }
+                    System.arraycopy(cache, 0, cache, 1, hit);
+                    cache[0] = v;
+                }
+            } else {
+                // a point is in the cache if fewer than cacheSize misses happened since its own
+                long[] missed = new long[numPoints];
+                Arrays.fill(missed, Long.MIN_VALUE / 2);
+                for (int v : corners) {
+                    if (misses - missed[v] >= cacheSize) {
+                        missed[v] = misses++;
+                    }
+                }
+            }
+            return misses;
+        }
+
+        // Values in the order the faces first use them, followed by the unused ones, with the
+        // face indices at offset remapped
+        private static float[] reorder(float[] values, int size, int[] faces, int vertexIndexSize, int offset) {
+            final int n = values.length / size;
+            int[] reindex = new int[n];
+            Arrays.fill(reindex, -1);
+            float[] reordered = new float[values.length];
+            int next = 0;
+            for (int i = offset; i < faces.length; i += vertexIndexSize) {
+                int index = faces[i];
+                if (reindex[index] < 0) {
+                    System.arraycopy(values, index * size, reordered, next * size, size);
+                    reindex[index] = next++;
+                }
+                faces[i] = reindex[index];
+            }
+            for (int index = 0; index < n; index++) {
+                if (reindex[index] < 0) {
+                    System.arraycopy(values, index * size, reordered, next++ * size, size);
+                }
+            }
+            return reordered;
+        }
+    }
 
-            check += mesh.getPoints().size() / pointElementSize;
+    private void optimizePoints() {
+        int total = 0, duplicates = 0, check = 0;
+        for (MeshView meshView : meshViews) {
+            TriangleMesh mesh = (TriangleMesh) meshView.getMesh();
+            VertexFormat format = mesh.getVertexFormat();
+            total += mesh.getPoints().size() / mesh.getPointElementSize();
+            duplicates += weld(mesh.getPoints(), mesh.getPointElementSize(), pointWeldTolerance,
+                    mesh.getFaces(), format.getVertexIndexSize(), format.getPointIndexOffset());
+            check += mesh.getPoints().size() / mesh.getPointElementSize();
         }
         System.out.printf("There are %d (%.2f%%) duplicate points out of %d total.\n",
                 duplicates, 100d * duplicates / total, total);
@@ -276,60 +601,141 @@ public class Optimizer {
 
     private void optimizeTexCoords() {
         int total = 0, duplicates = 0, check = 0;
+        for (MeshView meshView : meshViews) {
+            TriangleMesh mesh = (TriangleMesh) meshView.getMesh();
+            VertexFormat format = mesh.getVertexFormat();
+            total += mesh.getTexCoords().size() / mesh.getTexCoordElementSize();
+            duplicates += weld(mesh.getTexCoords(), mesh.getTexCoordElementSize(), texCoordWeldTolerance,
+                    mesh.getFaces(), format.getVertexIndexSize(), format.getTexCoordIndexOffset());
+            check += mesh.getTexCoords().size() / mesh.getTexCoordElementSize();
+        }
+        System.out.printf("There are %d (%.2f%%) duplicate texcoords out of %d total.\n",
+                duplicates, 100d * duplicates / total, total);
+        System.out.printf("Now we have %d texcoords.\n", check);
+    }
 
-        Map<Point2D, Integer> pp = new HashMap<>();
-        ObservableIntegerArray reindex = FXCollections.observableIntegerArray();
-        ObservableFloatArray newTexCoords = FXCollections.observableFloatArray();
-
+    private void optimizeNormals() {
+        int total = 0, duplicates = 0, check = 0;
         for (MeshView meshView : meshViews) {
             TriangleMesh mesh = (TriangleMesh) meshView.getMesh();
-            ObservableFloatArray texcoords = mesh.getTexCoords();
-            int texcoordElementSize = mesh.getTexCoordElementSize();
-            int os = texcoords.size() / texcoordElementSize;
-
-            pp.clear();
-            newTexCoords.clear();
-            newTexCoords.ensureCapacity(texcoords.size());
-            reindex.clear();
-            reindex.resize(os);
-
-            for (int i = 0, oi = 0, ni = 0; i < texcoords.size(); i += texcoordElementSize, oi++) {
-                float x = texcoords.get(i);
-                float y = texcoords.get(i + 1);
-                Point2D p = new Point2D(x, y);
-                Integer index = pp.get(p);
-                if (index == null) {
-                    pp.put(p, ni);
-                    reindex.set(oi, ni);
-                    newTexCoords.addAll(x, y);
-                    ni++;
-                } else {
-                    reindex.set(oi, index);
-                }
+            VertexFormat format = mesh.getVertexFormat();
+            if (format.getNormalIndexOffset() < 0) {
+                continue;
             }
+            total += mesh.getNormals().size() / mesh.getNormalElementSize();
+            duplicates += weld(mesh.getNormals(), mesh.getNormalElementSize(), normalWeldTolerance,
+                    mesh.getFaces(), format.getVertexIndexSize(), format.getNormalIndexOffset());
+            check += mesh.getNormals().size() / mesh.getNormalElementSize();
+        }
+        if (total > 0) {
+            System.out.printf("There are %d (%.2f%%) duplicate normals out of %d total.\n",
+                    duplicates, 100d * duplicates / total, total);
+            System.out.printf("Now we have %d normals.\n", check);
+        }
+    }
 
-            int ns = newTexCoords.size() / texcoordElementSize;
+    /**
+     * Merges the elements of {@code values}, {@code size} floats each, whose coordinates all
+     * differ by at most {@code tolerance} and remaps the indices at {@code offset} of each
+     * {@code vertexIndexSize} ints of {@code faces}. Elements are bucketed in a hash grid of
+     * cells {@code tolerance} wide, or of their exact bits for 0, so an element only has to be
+     * compared with the elements of its neighbouring cells. Each element first finds the lowest
+     * indexed element it matches in parallel, then the chains are resolved in index order.
+     *
+     * @return the number of merged elements
+     */
+    private static int weld(ObservableFloatArray values, int size, float tolerance,
+                            ObservableIntegerArray faces, int vertexIndexSize, int offset) {
+        final int n = values.size() / size;
+        if (n == 0) {
+            return 0;
+        }
+        final float[] v = values.toArray(null);
+        final long[] cells = new long[n * size];
+        blocks(n).forEach(b -> {
+            for (int c = b * BLOCK_SIZE * size, e = Math.min(n, (b + 1) * BLOCK_SIZE) * size; c < e; c++) {
+                cells[c] = tolerance > 0 ? (long) Math.floor(v[c] / tolerance) : Float.floatToIntBits(v[c] + 0f);
+            }
+        });
 
-            int d = os - ns;
-            duplicates += d;
-            total += os;
+        // hash grid, the elements of a bucket are chained in ascending order
+        final int mask = Integer.highestOneBit(2 * n - 1) * 2 - 1;
+        final int[] head = new int[mask + 1];
+        final int[] next = new int[n];
+        Arrays.fill(head, -1);
+        for (int i = n - 1; i >= 0; i--) {
+            int bucket = hashCell(cells, i * size, size, 0) & mask;
+            next[i] = head[bucket];
+            head[bucket] = i;
+        }
 
-            texcoords.setAll(newTexCoords);
-            texcoords.trimToSize();
+        // lowest indexed match of each element among the 3^size cells around it, or itself
+        final int neighbours = tolerance > 0 ? (size == 2 ? 9 : 27) : 1;
+        final int[] first = new int[n];
+        blocks(n).forEach(b -> {
+            for (int i = b * BLOCK_SIZE, e = Math.min(n, i + BLOCK_SIZE); i < e; i++) {
+                int match = i;
+                for (int cell = 0; cell < neighbours; cell++) {
+                    for (int j = head[hashCell(cells, i * size, size, cell) & mask]; j >= 0 && j < match; j = next[j]) {
+                        if (matches(v, i * size, j * size, size, tolerance)) {
+                            match = j;
+                        }
+                    }
+                }
+                first[i] = match;
+            }
+        });
 
-            ObservableIntegerArray faces = mesh.getFaces();
-            for (int i = 1; i < faces.size(); i += 2) {
-                faces.set(i, reindex.get(faces.get(i)));
+        // compact the kept elements in place, merged ones take the index of their chain's root
+        final int[] reindex = new int[n];
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (first[i] == i) {
+                System.arraycopy(v, i * size, v, kept * size, size);
+                reindex[i] = kept++;
+            } else {
+                reindex[i] = reindex[first[i]];
             }
+        }
+        if (kept < n) {
+            values.setAll(v, 0, kept * size);
+            values.trimToSize();
+            final int[] f = faces.toArray(null);
+            final int numVertices = f.length / vertexIndexSize;
+            blocks(numVertices).forEach(b -> {
+                for (int i = b * BLOCK_SIZE, e = Math.min(numVertices, i + BLOCK_SIZE); i < e; i++) {
+                    int k = i * vertexIndexSize + offset;
+                    f[k] = reindex[f[k]];
+                }
+            });
+            faces.setAll(f);
+        }
+        return n - kept;
+    }
 
-//            System.out.printf("There are %d (%.2f%%) duplicate texcoords out of %d total for mesh '%s'.\n",
-//                    d, 100d * d / os, os, meshView.getId());
+    // Blocks of BLOCK_SIZE elements, processed in parallel for large meshes
+    private static IntStream blocks(int n) {
+        IntStream blocks = IntStream.range(0, (n + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        return n < PARALLEL_THRESHOLD ? blocks : blocks.parallel();
+    }
 
-            check += mesh.getTexCoords().size() / texcoordElementSize;
+    // Hash of the cell at {@code start} moved by the neighbour offset, -1, 0 or +1 per coordinate
+    private static int hashCell(long[] cells, int start, int size, int neighbour) {
+        long h = 0;
+        for (int c = 0; c < size; c++, neighbour /= 3) {
+            long cell = cells[start + c] + (neighbour % 3 == 2 ? -1 : neighbour % 3);
+            h = (h + cell) * 0x9E3779B97F4A7C15L;
         }
-        System.out.printf("There are %d (%.2f%%) duplicate texcoords out of %d total.\n",
-                duplicates, 100d * duplicates / total, total);
-        System.out.printf("Now we have %d texcoords.\n", check);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static boolean matches(float[] v, int a, int b, int size, float tolerance) {
+        for (int c = 0; c < size; c++) {
+            if (!(Math.abs(v[a + c] - v[b + c]) <= tolerance)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void cleanUpRepeatingFramesAndValues() {
@@ -509,7 +915,7 @@ public class Optimizer {
                     Object bean = p.getBean();
                     if (bean instanceof Transform) {
                         bound.add((Transform) bean);
-                    } else {
+                    } else if (!(bean instanceof BlendShape)) {
                         throw new UnsupportedOperationException("Bean is not transform, bean = " + bean);
                     }
                 } else {
@@ -534,6 +940,318 @@ public class Optimizer {
         System.out.printf("Now there are %d KeyValues and %d KeyFrames.\n", check, timeline.getKeyFrames().size());
     }
 
+    private double getTolerance(WritableValue<?> target) {
+        Double tolerance = channelTolerances.get(target);
+        if (tolerance != null) {
+            return tolerance;
+        }
+        if (target instanceof Property) {
+            Property<?> p = (Property<?>) target;
+            if (p.getBean() instanceof Rotate && "angle".equals(p.getName())) {
+                return angularTolerance;
+            }
+        }
+        return linearTolerance;
+    }
+
+    /**
+     * Lossy pass run after {@link #parseTimeline()}. Channels are simplified with
+     * Ramer-Douglas-Peucker, the error of a span of removed keys being measured against
+     * the curve a Timeline evaluates between the kept keys, tangents included. The kept
+     * keys keep their interpolators, so the segments around a span are not changed.
+     * First and last keys of every channel are always kept.
+     */
+    private void reduceKeys() {
+        if (timeline == null || (linearTolerance <= 0 && angularTolerance <= 0 && channelTolerances.isEmpty())) {
+            return;
+        }
+        Map<WritableValue<?>, List<KeyInfo>> channels = new LinkedHashMap<>();
+        for (KeyFrame keyFrame : timeline.getKeyFrames().sorted(new KeyFrameComparator())) {
+            for (KeyValue keyValue : keyFrame.getValues()) {
+                if (keyValue.getEndValue() instanceof Number) {
+                    channels.computeIfAbsent(keyValue.getTarget(), t -> new ArrayList<>())
+                            .add(new KeyInfo(keyFrame, keyValue));
+                }
+            }
+        }
+        MapOfLists<KeyFrame, KeyValue> toRemove = new MapOfLists<>();
+        int kvTotal = 0, kvRemoved = 0;
+        double maxError = 0;
+        int unknownTangents = 0;
+        for (Map.Entry<WritableValue<?>, List<KeyInfo>> entry : channels.entrySet()) {
+            List<KeyInfo> keys = entry.getValue();
+            int n = keys.size();
+            kvTotal += n;
+            double tolerance = getTolerance(entry.getKey());
+            if (n < 3 || tolerance <= 0) {
+                continue;
+            }
+            ChannelCurve curve = new ChannelCurve(keys, animationChannels.get(entry.getKey()));
+            boolean[] keep = new boolean[n];
+            keep[0] = keep[n - 1] = true;
+            for (int i = 0; i < n; i++) {
+                if (curve.unknown[i]) {
+                    unknownTangents++;
+                    // the segments on both sides of the key can't be evaluated
+                    keep[Math.max(0, i - 1)] = keep[i] = keep[Math.min(n - 1, i + 1)] = true;
+                }
+            }
+            int last = 0;
+            for (int i = 1; i < n; i++) {
+                if (keep[i]) {
+                    simplify(curve, last, i, tolerance, keep);
+                    last = i;
+                }
+            }
+            last = 0;
+            for (int i = 1; i < n; i++) {
+                if (!keep[i]) {
+                    continue;
+                }
+                if (i - last > 1) {
+                    maxError = Math.max(maxError, curve.spanError(last, i, null));
+                }
+                for (int j = last + 1; j < i; j++) {
+                    toRemove.add(keys.get(j).keyFrame, keys.get(j).keyValue);
+                    kvRemoved++;
+                }
+                last = i;
+            }
+        }
+        if (unknownTangents > 0) {
+            Logger.getLogger(Optimizer.class.getName()).log(Level.WARNING, "Kept " + unknownTangents
+                    + " TANGENT keys and their neighbours, their tangents are unknown without setAnimationClip");
+        }
+        int kfRemoved = 0, kfTotal = timeline.getKeyFrames().size();
+        List<KeyValue> newKeyValues = new ArrayList<>();
+        for (int i = 0; i < timeline.getKeyFrames().size(); i++) {
+            KeyFrame keyFrame = timeline.getKeyFrames().get(i);
+            List<KeyValue> keyValuesToRemove = toRemove.get(keyFrame);
+            if (keyValuesToRemove == null) {
+                continue;
+            }
+            newKeyValues.clear();
+            for (KeyValue keyValue : keyFrame.getValues()) {
+                if (!keyValuesToRemove.remove(keyValue)) {
+                    newKeyValues.add(keyValue);
+                }
+            }
+            if (newKeyValues.isEmpty() && keyFrame.getOnFinished() == null) {
+                timeline.getKeyFrames().remove(i);
+                i--;
+                kfRemoved++;
+            } else {
+                timeline.getKeyFrames().set(i, new KeyFrame(keyFrame.getTime(), keyFrame.getName(), keyFrame.getOnFinished(), newKeyValues));
+            }
+        }
+        System.out.printf("Reduced %d (%.2f%%) KeyValues out of total %d with max error %.6f.\n", kvRemoved, 100d * kvRemoved / kvTotal, kvTotal, maxError);
+        System.out.printf("Removed %d (%.2f%%) KeyFrames out of total %d. Now there are %d KeyFrames.\n",
+                kfRemoved, 100d * kfRemoved / kfTotal, kfTotal, timeline.getKeyFrames().size());
+    }
+
+    /**
+     * Iterative Ramer-Douglas-Peucker between the kept keys from and to: the key with the
+     * largest error in a span is kept and both halves are simplified in turn.
+     */
+    private static void simplify(ChannelCurve curve, int from, int to, double tolerance, boolean[] keep) {
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[]{from, to});
+        int[] worst = new int[1];
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            if (range[1] - range[0] > 1 && curve.spanError(range[0], range[1], worst) > tolerance) {
+                keep[worst[0]] = true;
+                ranges.push(new int[]{range[0], worst[0]});
+                ranges.push(new int[]{worst[0], range[1]});
+            }
+        }
+    }
+
+    /**
+     * Keys of a channel, evaluated the way a Timeline does: a segment is a cubic Bezier
+     * if either of its keys has an {@link Interpolator#TANGENT} interpolator, using the
+     * out tangent of the first and the in tangent of the second, and otherwise follows
+     * the interpolator of its second key. Interpolators don't expose their tangents, so
+     * they are taken from the AnimationChannel key at the same time and value.
+     */
+    private static class ChannelCurve {
+
+        // Samples per segment where a curve isn't a polynomial in time, e.g. EASE_BOTH
+        private static final int SAMPLES = 32;
+        private static final Class<? extends Interpolator> TANGENT_CLASS =
+                Interpolator.TANGENT(Duration.ONE, 0).getClass();
+
+        final double[] times;
+        final double[] values;
+        final Interpolator[] interpolators;
+        // inMillis, inValue, outMillis, outValue of tangent keys, null for other keys
+        final double[][] tangents;
+        // tangent keys without a channel key to take the tangents from
+        final boolean[] unknown;
+
+        ChannelCurve(List<KeyInfo> keys, AnimationChannel channel) {
+            int n = keys.size();
+            times = new double[n];
+            values = new double[n];
+            interpolators = new Interpolator[n];
+            tangents = new double[n][];
+            unknown = new boolean[n];
+            int c = 0;
+            for (int i = 0; i < n; i++) {
+                KeyInfo key = keys.get(i);
+                times[i] = key.keyFrame.getTime().toMillis();
+                values[i] = ((Number) key.keyValue.getEndValue()).doubleValue();
+                interpolators[i] = key.keyValue.getInterpolator();
+                if (interpolators[i] == null || interpolators[i].getClass() != TANGENT_CLASS) {
+                    continue;
+                }
+                // the channel keys are in time order too, at the times AnimationClip.toTimeline gives them
+                while (channel != null && c < channel.getKeyCount() && Duration.seconds(channel.getTime(c)).toMillis() < times[i]) {
+                    c++;
+                }
+                if (channel != null && c < channel.getKeyCount() && Duration.seconds(channel.getTime(c)).toMillis() == times[i]
+                        && channel.getValue(c) == values[i] && channel.getInterpolation(c) == AnimationChannel.Interpolation.TANGENT) {
+                    tangents[i] = new double[]{channel.getInMillis(c), channel.getInValue(c), channel.getOutMillis(c), channel.getOutValue(c)};
+                } else {
+                    unknown[i] = true;
+                }
+            }
+        }
+
+        // Value at the given time of the segment from key a to key b, as if the keys between were removed
+        double evaluate(int a, int b, double time) {
+            double duration = times[b] - times[a];
+            double t = duration > 0 ? (time - times[a]) / duration : 1;
+            if (tangents[a] == null && tangents[b] == null) {
+                return interpolators[b].interpolate(values[a], values[b], t);
+            }
+            double p1 = tangents[a] == null ? values[a] : control(values[a], tangents[a][3], duration, tangents[a][2]);
+            double p2 = tangents[b] == null ? values[b] : control(values[b], tangents[b][1], duration, tangents[b][0]);
+            double u = 1 - t;
+            return u * u * u * values[a] + 3 * u * u * t * p1 + 3 * u * t * t * p2 + t * t * t * values[b];
+        }
+
+        private static double control(double value, double tangentValue, double duration, double tangentMillis) {
+            return tangentMillis <= 0 ? value : value + (tangentValue - value) * duration / tangentMillis / 3;
+        }
+
+        // Bezier control values of the segment from key a to key b, as if the keys between were
+        // removed, or null if the segment isn't a polynomial in time
+        private double[] bezier(int a, int b) {
+            double duration = times[b] - times[a];
+            if (duration <= 0) {
+                return null;
+            }
+            if (tangents[a] != null || tangents[b] != null) {
+                return new double[]{values[a],
+                        tangents[a] == null ? values[a] : control(values[a], tangents[a][3], duration, tangents[a][2]),
+                        tangents[b] == null ? values[b] : control(values[b], tangents[b][1], duration, tangents[b][0]),
+                        values[b]};
+            }
+            if (interpolators[b] == Interpolator.LINEAR) {
+                double third = (values[b] - values[a]) / 3;
+                return new double[]{values[a], values[a] + third, values[b] - third, values[b]};
+            }
+            if (interpolators[b] == Interpolator.DISCRETE) {
+                // the value only jumps at the end of the segment, where the key is checked on its own
+                return new double[]{values[a], values[a], values[a], values[a]};
+            }
+            return null;
+        }
+
+        /**
+         * Largest difference between the segment from key a to key b and the original
+         * curve through the keys between them. Where both are polynomials in time, this is
+         * the exact maximum of their difference on every original segment; otherwise the
+         * segment is sampled SAMPLES times.
+         * The interior key next to the largest difference is stored in worst, if given.
+         */
+        double spanError(int a, int b, int[] worst) {
+            double[] span = bezier(a, b);
+            double spanDuration = times[b] - times[a];
+            double[] difference = new double[4];
+            double[] spanPolynomial = new double[4];
+            double[] at = new double[1];
+            double maxError = 0;
+            for (int k = a; k < b; k++) {
+                double duration = times[k + 1] - times[k];
+                double[] segment = bezier(k, k + 1);
+                double error;
+                if (span != null && segment != null) {
+                    // both as polynomials in the fraction of segment k
+                    polynomial(segment, 0, 1, difference);
+                    polynomial(span, (times[k] - times[a]) / spanDuration, duration / spanDuration, spanPolynomial);
+                    for (int i = 0; i < 4; i++) {
+                        difference[i] -= spanPolynomial[i];
+                    }
+                    error = maxAbs(difference, at);
+                } else {
+                    error = Math.abs(values[k] - evaluate(a, b, times[k]));
+                    at[0] = 0;
+                    for (int q = 1; q <= SAMPLES && duration > 0; q++) {
+                        double time = times[k] + duration * q / SAMPLES;
+                        double sample = Math.abs(evaluate(k, k + 1, time) - evaluate(a, b, time));
+                        if (sample > error) {
+                            error = sample;
+                            at[0] = (double) q / SAMPLES;
+                        }
+                    }
+                }
+                if (error > maxError) {
+                    maxError = error;
+                    if (worst != null) {
+                        worst[0] = k > a && (at[0] < 0.5 || k + 1 == b) ? k : k + 1;
+                    }
+                }
+            }
+            return maxError;
+        }
+
+        // Coefficients in s of the cubic Bezier curve with the given control values at u = u0 + du * s
+        private static void polynomial(double[] bezier, double u0, double du, double[] out) {
+            double c0 = bezier[0];
+            double c1 = 3 * (bezier[1] - bezier[0]);
+            double c2 = 3 * (bezier[0] - 2 * bezier[1] + bezier[2]);
+            double c3 = bezier[3] - bezier[0] + 3 * (bezier[1] - bezier[2]);
+            out[0] = c0 + u0 * (c1 + u0 * (c2 + u0 * c3));
+            out[1] = du * (c1 + u0 * (2 * c2 + 3 * u0 * c3));
+            out[2] = du * du * (c2 + 3 * u0 * c3);
+            out[3] = du * du * du * c3;
+        }
+
+        // Largest absolute value of the cubic p on [0, 1], taken at the ends or where its derivative is 0.
+        // The s it is reached at is stored in at
+        private static double maxAbs(double[] p, double[] at) {
+            double a = 3 * p[3], b = 2 * p[2], c = p[1];
+            double[] candidates = {0, 1, -1, -1};
+            if (a == 0) {
+                if (b != 0) {
+                    candidates[2] = -c / b;
+                }
+            } else {
+                double discriminant = b * b - 4 * a * c;
+                if (discriminant >= 0) {
+                    double q = -0.5 * (b + Math.copySign(Math.sqrt(discriminant), b));
+                    candidates[2] = q / a;
+                    if (q != 0) {
+                        candidates[3] = c / q;
+                    }
+                }
+            }
+            double max = -1;
+            for (double s : candidates) {
+                if (s >= 0 && s <= 1) {
+                    double value = Math.abs(p[0] + s * (p[1] + s * (p[2] + s * p[3])));
+                    if (value > max) {
+                        max = value;
+                        at[0] = s;
+                    }
+                }
+            }
+            return max;
+        }
+    }
+
     private void removeEmptyGroups() {
         for (Parent p : emptyParents) {
             Parent parent = p.getParent();
@@ -0,0 +1,298 @@
+/*
+ * F(X)yz
+ *
+ * Copyright (c) 2013-2019, F(X)yz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *     * Neither the name of F(X)yz, any associated website, nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL F(X)yz BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.bingbaihanji.javafxparse3dfile.importers.animation;
+
+import javafx.animation.Interpolator;
+import javafx.animation.KeyValue;
+import javafx.beans.value.WritableDoubleValue;
+import javafx.util.Duration;
+
+import java.util.Arrays;
+
+/**
+ * The keys of one animated property, baked into parallel arrays of key times,
+ * values and the Bezier control values of the segments between the keys.
+ * Sampling follows the semantics of a Timeline holding the same keys, with
+ * {@link Interpolator#TANGENT} keys evaluated as cubic Bezier segments.
+ */
+public final class AnimationChannel {
+
+    /** How the value gets to a key from the previous one. */
+    public enum Interpolation {
+        LINEAR, DISCRETE, TANGENT
+    }
+
+    private static final Interpolation[] INTERPOLATIONS = Interpolation.values();
+
+    private final WritableDoubleValue target;
+    private final double initialValue;
+    // Key times in seconds, ascending
+    private final double[] times;
+    private final double[] values;
+    private final byte[] interpolations;
+    // Tangents as given to Interpolator.TANGENT
+    private final double[] inMillis;
+    private final double[] inValues;
+    private final double[] outMillis;
+    private final double[] outValues;
+    // Bezier control values of the segment ending at each key
+    private final double[] control1;
+    private final double[] control2;
+    // Segment of the last sample, most samples fall in the same or the next one
+    private int cursor;
+
+    private AnimationChannel(Builder builder) {
+        int n = builder.size;
+        target = builder.target;
+        initialValue = target.get();
+        times = Arrays.copyOf(builder.times, n);
+        values = Arrays.copyOf(builder.values, n);
+        interpolations = Arrays.copyOf(builder.interpolations, n);
+        inMillis = Arrays.copyOf(builder.inMillis, n);
+        inValues = Arrays.copyOf(builder.inValues, n);
+        outMillis = Arrays.copyOf(builder.outMillis, n);
+        outValues = Arrays.copyOf(builder.outValues, n);
+        control1 = new double[n];
+        control2 = new double[n];
+        for (int i = 0; i < n; i++) {
+            double startTime = i == 0 ? 0 : times[i - 1];
+            double startValue = i == 0 ? initialValue : values[i - 1];
+            double duration = (times[i] - startTime) * 1000;
+            // The out tangent of the previous key only counts if it is a tangent key too
+            control1[i] = i > 0 && interpolations[i - 1] == Interpolation.TANGENT.ordinal() ?
+                    controlValue(startValue, outValues[i - 1], duration, outMillis[i - 1]) : startValue;
+            control2[i] = interpolations[i] == Interpolation.TANGENT.ordinal() ?
+                    controlValue(values[i], inValues[i], duration, inMillis[i]) : values[i];
+        }
+    }
+
+    private static double controlValue(double value, double tangentValue, double duration, double tangentMillis) {
+        if (tangentMillis <= 0) {
+            return value;
+        }
+        return value + (tangentValue - value) * duration / tangentMillis / 3;
+    }
+
+    public WritableDoubleValue getTarget() {
+        return target;
+    }
+
+    public int getKeyCount() {
+        return times.length;
+    }
+
+    /** Returns the time of the given key in seconds. */
+    public double getTime(int key) {
+        return times[key];
+    }
+
+    public double getValue(int key) {
+        return values[key];
+    }
+
+    public Interpolation getInterpolation(int key) {
+        return INTERPOLATIONS[interpolations[key]];
+    }
+
+    /** Returns the in tangent duration of the given TANGENT key in milliseconds. */
+    public double getInMillis(int key) {
+        return inMillis[key];
+    }
+
+    public double getInValue(int key) {
+        return inValues[key];
+    }
+
+    /** Returns the out tangent duration of the given TANGENT key in milliseconds. */
+    public double getOutMillis(int key) {
+        return outMillis[key];
+    }
+
+    public double getOutValue(int key) {
+        return outValues[key];
+    }
+
+    /** Returns the time of the last key in seconds. */
+    public double getDuration() {
+        return times.length == 0 ? 0 : times[times.length - 1];
+    }
+
+    /** Returns a KeyValue equivalent to the given key, for use in a Timeline. */
+    public KeyValue toKeyValue(int key) {
+        Interpolator interpolator;
+        switch (getInterpolation(key)) {
+            case DISCRETE:
+                interpolator = Interpolator.DISCRETE;
+                break;
+            case TANGENT:
+                interpolator = Interpolator.TANGENT(
+                        Duration.millis(inMillis[key]), inValues[key],
+                        Duration.millis(outMillis[key]), outValues[key]);
+                break;
+            default:
+                interpolator = Interpolator.LINEAR;
+                break;
+        }
+        return new KeyValue(target, values[key], interpolator);
+    }
+
+    /** Returns a channel with the same keys driving another target. */
+    public AnimationChannel withTarget(WritableDoubleValue target) {
+        Builder builder = new Builder(target);
+        for (int i = 0; i < times.length; i++) {
+            builder.addKey(times[i], values[i], INTERPOLATIONS[interpolations[i]],
+                    inMillis[i], inValues[i], outMillis[i], outValues[i]);
+        }
+        return builder.build();
+    }
+
+    /** Writes the value at the given time, in seconds, to the target. */
+    public void apply(double time) {
+        target.set(sample(time));
+    }
+
+    /** Returns the value at the given time in seconds. */
+    public double sample(double time) {
+        int n = times.length;
+        if (n == 0) {
+            return initialValue;
+        }
+        if (time >= times[n - 1]) {
+            return values[n - 1];
+        }
+        double startTime;
+        double startValue;
+        int end;
+        if (time < times[0]) {
+            startTime = 0;
+            startValue = initialValue;
+            end = 0;
+        } else {
+            int start = findSegment(time);
+            startTime = times[start];
+            startValue = values[start];
+            end = start + 1;
+        }
+        double duration = times[end] - startTime;
+        double t = duration > 0 ? (time - startTime) / duration : 1;
+        // As in a Timeline, a tangent on either side makes the segment a Bezier curve
+        if (interpolations[end] == Interpolation.TANGENT.ordinal()
+                || end > 0 && interpolations[end - 1] == Interpolation.TANGENT.ordinal()) {
+            double u = 1 - t;
+            return u * u * u * startValue + 3 * u * u * t * control1[end] +
+                    3 * u * t * t * control2[end] + t * t * t * values[end];
+        } else if (interpolations[end] == Interpolation.DISCRETE.ordinal()) {
+            return startValue;
+        }
+        return startValue + (values[end] - startValue) * t;
+    }
+
+    // Index of the last key at or before the given time, which is known to
+    // be within [times[0], times[n - 1])
+    private int findSegment(double time) {
+        int i = cursor;
+        if (i < times.length - 1 && times[i] <= time) {
+            while (times[i + 1] <= time) {
+                i++;
+            }
+        } else {
+            int low = 0;
+            int high = times.length - 1;
+            while (high - low > 1) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] <= time) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            i = low;
+        }
+        cursor = i;
+        return i;
+    }
+
+    /** Collects the keys of a channel, which must be added in time order. */
+    public static final class Builder {
+
+        private final WritableDoubleValue target;
+        private int size;
+        private double[] times = new double[8];
+        private double[] values = new double[8];
+        private byte[] interpolations = new byte[8];
+        private double[] inMillis = new double[8];
+        private double[] inValues = new double[8];
+        private double[] outMillis = new double[8];
+        private double[] outValues = new double[8];
+
+        public Builder(WritableDoubleValue target) {
+            this.target = target;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder addKey(double time, double value, Interpolation interpolation) {
+            return addKey(time, value, interpolation, 0, value, 0, value);
+        }
+
+        /**
+         * Adds a key at the given time in seconds. The tangents are only used
+         * for TANGENT keys, and have the meaning of the arguments of
+         * {@link Interpolator#TANGENT(Duration, double, Duration, double)}.
+         */
+        public Builder addKey(double time, double value, Interpolation interpolation,
+                              double inMillis, double inValue, double outMillis, double outValue) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                values = Arrays.copyOf(values, capacity);
+                interpolations = Arrays.copyOf(interpolations, capacity);
+                this.inMillis = Arrays.copyOf(this.inMillis, capacity);
+                inValues = Arrays.copyOf(inValues, capacity);
+                this.outMillis = Arrays.copyOf(this.outMillis, capacity);
+                outValues = Arrays.copyOf(outValues, capacity);
+            }
+            times[size] = time;
+            values[size] = value;
+            interpolations[size] = (byte) interpolation.ordinal();
+            this.inMillis[size] = inMillis;
+            inValues[size] = inValue;
+            this.outMillis[size] = outMillis;
+            outValues[size] = outValue;
+            size++;
+            return this;
+        }
+
+        public AnimationChannel build() {
+            return new AnimationChannel(this);
+        }
+    }
+}
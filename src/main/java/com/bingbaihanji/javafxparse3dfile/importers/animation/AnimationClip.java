@@ -0,0 +1,200 @@
+/*
+ * F(X)yz
+ *
+ * Copyright (c) 2013-2019, F(X)yz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *     * Neither the name of F(X)yz, any associated website, nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL F(X)yz BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.bingbaihanji.javafxparse3dfile.importers.animation;
+
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.KeyValue;
+import javafx.animation.Timeline;
+import javafx.util.Duration;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * A baked animation: a set of channels sampled together by a single
+ * AnimationTimer, which writes the sampled values straight into the animated
+ * properties. Playback runs from 0 to the time of the last key, once.
+ */
+public class AnimationClip {
+
+    private final AnimationChannel[] channels;
+    private final double duration;
+    private double currentTime;
+    private double rate = 1;
+    private boolean playing;
+    private long lastPulse;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (lastPulse == 0) {
+                lastPulse = now;
+                return;
+            }
+            double time = currentTime + (now - lastPulse) / 1e9 * rate;
+            lastPulse = now;
+            if (time >= duration || time <= 0) {
+                time = Math.max(0, Math.min(time, duration));
+                stopTimer();
+            }
+            sample(time);
+        }
+    };
+
+    public AnimationClip(Collection<AnimationChannel> channels) {
+        this.channels = channels.toArray(new AnimationChannel[0]);
+        double max = 0;
+        for (AnimationChannel channel : this.channels) {
+            max = Math.max(max, channel.getDuration());
+        }
+        duration = max;
+    }
+
+    public List<AnimationChannel> getChannels() {
+        return Collections.unmodifiableList(Arrays.asList(channels));
+    }
+
+    public Duration getDuration() {
+        return Duration.seconds(duration);
+    }
+
+    public Duration getCurrentTime() {
+        return Duration.seconds(currentTime);
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /** Sets the playback speed; 1 is normal speed, negative values play backwards. */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /** Plays from the current time, or from the start (end when playing backwards) if already there. */
+    public void play() {
+        if (rate > 0 && currentTime >= duration) {
+            currentTime = 0;
+        } else if (rate < 0 && currentTime <= 0) {
+            currentTime = duration;
+        }
+        if (!playing) {
+            playing = true;
+            lastPulse = 0;
+            timer.start();
+        }
+    }
+
+    public void pause() {
+        stopTimer();
+    }
+
+    /** Stops playback and returns to the start. */
+    public void stop() {
+        stopTimer();
+        seek(Duration.ZERO);
+    }
+
+    /** Jumps to the given time and applies it immediately. */
+    public void seek(Duration time) {
+        sample(Math.max(0, Math.min(time.toSeconds(), duration)));
+    }
+
+    /** Writes the values of all channels at the given time, in seconds. */
+    public void sample(double time) {
+        currentTime = time;
+        for (AnimationChannel channel : channels) {
+            channel.apply(time);
+        }
+    }
+
+    private void stopTimer() {
+        if (playing) {
+            playing = false;
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns a Timeline with a KeyFrame per distinct key time, holding the
+     * KeyValues of all channels at that time, in channel order.
+     */
+    public Timeline toTimeline() {
+        // The KeyValues of each channel are created concurrently, then the
+        // channels, already sorted by time, are merged with a k-way merge
+        KeyValue[][] keyValues = new KeyValue[channels.length][];
+        IntStream.range(0, channels.length).parallel().forEach(c -> {
+            AnimationChannel channel = channels[c];
+            KeyValue[] values = new KeyValue[channel.getKeyCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = channel.toKeyValue(i);
+            }
+            keyValues[c] = values;
+        });
+
+        // Heads of the channels still holding keys, ordered by time then channel
+        int[] next = new int[channels.length];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, channels.length), (c1, c2) -> {
+            int order = Double.compare(channels[c1].getTime(next[c1]), channels[c2].getTime(next[c2]));
+            return order != 0 ? order : Integer.compare(c1, c2);
+        });
+        for (int c = 0; c < channels.length; c++) {
+            if (channels[c].getKeyCount() > 0) {
+                heads.add(c);
+            }
+        }
+        List<KeyFrame> keyFrames = new ArrayList<>();
+        List<KeyValue> values = new ArrayList<>();
+        double time = 0;
+        while (!heads.isEmpty()) {
+            int c = heads.poll();
+            double keyTime = channels[c].getTime(next[c]);
+            if (!values.isEmpty() && keyTime != time) {
+                keyFrames.add(new KeyFrame(Duration.seconds(time), null, null, values));
+                values = new ArrayList<>();
+            }
+            time = keyTime;
+            values.add(keyValues[c][next[c]]);
+            if (++next[c] < channels[c].getKeyCount()) {
+                heads.add(c);
+            }
+        }
+        if (!values.isEmpty()) {
+            keyFrames.add(new KeyFrame(Duration.seconds(time), null, null, values));
+        }
+        Timeline timeline = new Timeline();
+        timeline.getKeyFrames().setAll(keyFrames);
+        return timeline;
+    }
+}
@@ -31,10 +31,6 @@
  */
 package com.bingbaihanji.javafxparse3dfile.importers.maya;
 
-import javafx.animation.AnimationTimer;
-import javafx.animation.Interpolator;
-import javafx.animation.KeyFrame;
-import javafx.animation.KeyValue;
 import javafx.beans.property.DoubleProperty;
 import javafx.scene.DepthTest;
 import javafx.scene.Group;
@@ -46,10 +42,12 @@ import javafx.scene.paint.PhongMaterial;
 import javafx.scene.shape.MeshView;
 import javafx.scene.shape.TriangleMesh;
 import javafx.scene.transform.Affine;
-import javafx.util.Duration;
-import com.bingbaihanji.javafxparse3dfile.importers.SmoothingGroups;
+import com.bingbaihanji.javafxparse3dfile.importers.animation.AnimationChannel;
 import com.bingbaihanji.javafxparse3dfile.importers.maya.parser.MParser;
 import com.bingbaihanji.javafxparse3dfile.importers.maya.values.*;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.BlendShape;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.MeshUpdatePolicy;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.MeshUpdateScheduler;
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.PolygonMesh;
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.PolygonMeshView;
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SkinningMesh;
@@ -62,6 +60,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
 import java.util.logging.Level;
+import java.util.stream.IntStream;
 import java.util.logging.Logger;
 
 /** Loader */
@@ -94,21 +93,78 @@ class Loader {
     MNodeType shadingEngineType;
 
     // Joint rootJoint; //NO_JOINTS
-    Map<MNode, Node> loaded = new HashMap<>();
+    Map<MNode, Node> loaded = new LinkedHashMap<>();
 
-    Map<Float, List<KeyValue>> keyFrameMap = new TreeMap<>();
+    // Baked animation curves, in the order their targets were resolved
+    List<AnimationChannel> channels = new ArrayList<>();
+    // Anim curves and the properties they drive, converted after resolving
+    private final List<AnimCurveTarget> animCurves = new ArrayList<>();
 
     Map<Node, MNode> meshParents = new HashMap<>();
 
-    private MFloat3Array mVerts;
-    // Optionally force per-face per-vertex normal generation
-    private int[] edgeData;
-
-    private List<MData> uvSet;
-    private int uvChannel;
-    private MFloat3Array mPointTweaks;
+    private final Map<MNode, BlendShape> blendShapes = new HashMap<>();
+    // Meshes converted ahead of resolving, see convertMeshes
+    private final Map<MNode, Object> convertedMeshes = new HashMap<>();
     private URL url;
     private boolean asPolygonMesh;
+    private boolean deferredDecoding;
+    private boolean asynchronousSkinning;
+    private MeshUpdatePolicy updatePolicy;
+    private boolean reachableOnly;
+    private Set<String> includedNodeTypes = Collections.emptySet();
+    private Set<String> excludedNodeTypes = Collections.emptySet();
+    // Nodes to convert when importing selectively, null to convert every node
+    private Set<MNode> selectedNodes;
+    // Intermediate meshes are only converted when a skinCluster uses them as input
+    private final Set<MNode> intermediateMeshes = new HashSet<>();
+    int skippedNodes;
+    long skippedBytes;
+
+    // Attributes decoded ahead of conversion when decoding is deferred
+    private static final String[] MESH_ATTRS = {"vt", "fc", "ed", "n", "uvst", "pt", "cuvs"};
+    private static final String[] SKIN_CLUSTER_ATTRS = {"wl", "ma", "pm", "gm"};
+    private static final String[] BLEND_SHAPE_ATTRS = {"w", "it"};
+    private static final String[] ANIM_CURVE_ATTRS = {"ktv", "kix", "kiy", "kox", "koy", "kit", "kot", "tan"};
+
+    /**
+     * When set, setAttr values are only decoded when their attribute is first
+     * accessed, and the bulky payloads used for conversion are decoded in
+     * parallel once the node graph is known.
+     */
+    void setDeferredDecoding(boolean deferredDecoding) {
+        this.deferredDecoding = deferredDecoding;
+    }
+
+    /**
+     * When set, skinned meshes compute their points on a worker thread, see
+     * {@link SkinningMesh#setAsynchronous(boolean)}.
+     */
+    void setAsynchronousSkinning(boolean asynchronousSkinning) {
+        this.asynchronousSkinning = asynchronousSkinning;
+    }
+
+    /**
+     * Sets the policy deciding when skinned meshes are updated, shared by all of them.
+     */
+    void setUpdatePolicy(MeshUpdatePolicy updatePolicy) {
+        this.updatePolicy = updatePolicy;
+    }
+
+    /**
+     * Restricts the conversion to the nodes reachable from visible meshes and
+     * transforms, if reachableOnly is set, and to the nodes whose type is
+     * (a subtype of) one of the included types, when there are any, and
+     * none of the excluded ones. Filtered nodes are never decoded or converted.
+     */
+    void setNodeFilter(boolean reachableOnly, Set<String> includedNodeTypes, Set<String> excludedNodeTypes) {
+        this.reachableOnly = reachableOnly;
+        this.includedNodeTypes = includedNodeTypes;
+        this.excludedNodeTypes = excludedNodeTypes;
+    }
+
+    private boolean isSelective() {
+        return reachableOnly || !includedNodeTypes.isEmpty() || !excludedNodeTypes.isEmpty();
+    }
 
     //=========================================================================
     // Loader.load
@@ -119,14 +175,28 @@ class Loader {
         this.url = url;
         this.asPolygonMesh = asPolygonMesh;
         env = new MEnv();
-        MParser parser = new MParser(env);
+        boolean selective = isSelective();
+        MParser parser = new MParser(env, deferredDecoding || selective);
         try {
             parser.parse(url);
             loadModel();
+            if (selective) {
+                selectedNodes = selectNodes();
+            }
+            if (deferredDecoding || selective) {
+                decodeDeferred();
+            }
+            convertMeshes();
             for (MNode n : env.getNodes()) {
                 // System.out.println("____________________________________________________________");
                 // System.out.println("==> .......Node: " + n);
-                resolveNode(n);
+                if (isResolvedUpFront(n)) {
+                    resolveNode(n);
+                }
+            }
+            convertAnimCurves();
+            if (selective) {
+                reportSkipped();
             }
         } catch (IOException e) {
             Logger.getLogger(MayaImporter.class.getName()).log(Level.WARNING, "Error loading url: [" + url + "]");
@@ -162,6 +232,176 @@ class Loader {
         blendShapeType = env.findNodeType("blendShape");
     }
 
+    //=========================================================================
+    // Loader.selectNodes
+    //-------------------------------------------------------------------------
+    // Returns the nodes passing the node type filter, in file order. With
+    // reachableOnly, only the ones reachable from visible meshes and leaf or
+    // group transforms by following DAG parents and incoming connections.
+    //=========================================================================
+    Set<MNode> selectNodes() {
+        List<MNodeType> included = findNodeTypes(includedNodeTypes);
+        List<MNodeType> excluded = findNodeTypes(excludedNodeTypes);
+        Set<MNode> reached = new HashSet<>();
+        Deque<MNode> work = new ArrayDeque<>();
+        for (MNode n : env.getNodes()) {
+            if (!isExcluded(n, included, excluded) && (!reachableOnly || isReachableRoot(n))) {
+                reached.add(n);
+                work.add(n);
+            }
+        }
+        while (reachableOnly && !work.isEmpty()) {
+            MNode n = work.poll();
+            List<MNode> next = new ArrayList<>(n.getParentNodes());
+            Set<MConnection> incoming = n.getIncomingConnections();
+            if (incoming != null) {
+                for (MConnection c : incoming) {
+                    next.add(c.getSourcePath().getTargetNode());
+                }
+            }
+            for (MNode m : next) {
+                if (m != null && !isExcluded(m, included, excluded) && reached.add(m)) {
+                    work.add(m);
+                }
+            }
+        }
+        Set<MNode> selected = new LinkedHashSet<>();
+        for (MNode n : env.getNodes()) {
+            if (reached.contains(n)) {
+                selected.add(n);
+                if (n.isInstanceOf(meshType) && getFlag(n, "io", false)) {
+                    intermediateMeshes.add(n);
+                }
+            }
+        }
+        return selected;
+    }
+
+    private List<MNodeType> findNodeTypes(Set<String> names) {
+        List<MNodeType> types = new ArrayList<>();
+        for (String name : names) {
+            MNodeType type = env.findNodeType(name);
+            if (type != null) {
+                types.add(type);
+            } else {
+                Logger.getLogger(MayaImporter.class.getName()).log(Level.WARNING, "Unknown node type in filter: " + name);
+            }
+        }
+        return types;
+    }
+
+    private boolean isExcluded(MNode n, List<MNodeType> included, List<MNodeType> excluded) {
+        for (MNodeType t : excluded) {
+            if (n.isInstanceOf(t)) {
+                return true;
+            }
+        }
+        for (MNodeType t : included) {
+            if (n.isInstanceOf(t)) {
+                return false;
+            }
+        }
+        return !included.isEmpty();
+    }
+
+    // Visible meshes, and visible transforms that only have transforms below
+    // them, which leaves out cameras, lights and other shapes
+    private boolean isReachableRoot(MNode n) {
+        if (n.isInstanceOf(meshType)) {
+            return !getFlag(n, "io", false) && isVisible(n);
+        }
+        if (n.isInstanceOf(transformType)) {
+            for (MNode c : n.getChildNodes()) {
+                if (!c.isInstanceOf(transformType)) {
+                    return false;
+                }
+            }
+            return isVisible(n);
+        }
+        return false;
+    }
+
+    private boolean isVisible(MNode n) {
+        if (!getFlag(n, "v", true)) {
+            return false;
+        }
+        for (MNode p : n.getParentNodes()) {
+            if (isVisible(p)) {
+                return true;
+            }
+        }
+        return n.getParentNodes().isEmpty();
+    }
+
+    // Value of a bool attribute, or the default when it wasn't set or is driven by a connection
+    private boolean getFlag(MNode n, String attr, boolean defaultValue) {
+        if (!n.isAttrSet(attr) || !n.getConnectionsTo(attr).isEmpty()) {
+            return defaultValue;
+        }
+        MData data = n.getAttr(attr);
+        return data instanceof MBool ? ((MBool) data).get() : defaultValue;
+    }
+
+    void reportSkipped() {
+        for (MNode n : env.getNodes()) {
+            if (!selectedNodes.contains(n) || (intermediateMeshes.contains(n) && !loaded.containsKey(n))) {
+                skippedNodes++;
+            }
+            skippedBytes += n.getDeferredLength();
+        }
+        Logger.getLogger(MayaImporter.class.getName()).log(Level.INFO, "Skipped " + skippedNodes + " of " +
+                env.getNodes().size() + " nodes, " + skippedBytes + " bytes of attribute data were never decoded");
+    }
+
+    //=========================================================================
+    // Loader.decodeDeferred
+    //-------------------------------------------------------------------------
+    // Decodes the payloads the conversion needs on the common fork-join pool.
+    // Each node is decoded by a single task, as MNode isn't thread safe.
+    //=========================================================================
+    void decodeDeferred() {
+        Collection<MNode> nodes = selectedNodes != null ? selectedNodes : env.getNodes();
+        nodes.parallelStream().forEach(n -> {
+            if (n.isInstanceOf(meshType)) {
+                n.decodeDeferred(MESH_ATTRS);
+            } else if (n.isInstanceOf(skinClusterType)) {
+                n.decodeDeferred(SKIN_CLUSTER_ATTRS);
+            } else if (n.isInstanceOf(blendShapeType)) {
+                n.decodeDeferred(BLEND_SHAPE_ATTRS);
+            } else if (n.isInstanceOf(animCurve)) {
+                n.decodeDeferred(ANIM_CURVE_ATTRS);
+            }
+        });
+    }
+
+    // Intermediate meshes and filtered nodes are only resolved when needed
+    private boolean isResolvedUpFront(MNode n) {
+        return selectedNodes == null || (selectedNodes.contains(n) && !intermediateMeshes.contains(n));
+    }
+
+    //=========================================================================
+    // Loader.convertMeshes
+    //-------------------------------------------------------------------------
+    // Converts the geometry of the meshes resolved up front concurrently on
+    // the common fork-join pool. Conversion only reads the attributes of the
+    // mesh node itself; the views are created and attached to their parents
+    // later, in the order the nodes are resolved.
+    //=========================================================================
+    void convertMeshes() {
+        List<MNode> meshes = new ArrayList<>();
+        for (MNode n : env.getNodes()) {
+            if (n.isInstanceOf(meshType) && isResolvedUpFront(n)) {
+                meshes.add(n);
+            }
+        }
+        Object[] results = new Object[meshes.size()];
+        IntStream.range(0, results.length).parallel()
+                .forEach(i -> results[i] = new MeshConverter(meshes.get(i), asPolygonMesh).convert());
+        for (int i = 0; i < results.length; i++) {
+            convertedMeshes.put(meshes.get(i), results[i]);
+        }
+    }
+
     //=========================================================================
     // Loader.resolveNode
     //-------------------------------------------------------------------------
@@ -172,6 +412,9 @@ class Loader {
     //=========================================================================
     Node resolveNode(MNode n) {
         // System.out.println("--> resolveNode: " + n);
+        if (selectedNodes != null && !selectedNodes.contains(n)) {
+            return null;
+        }
         // if the node hasn't already been processed, then process the node
         if (!loaded.containsKey(n)) {
             // System.out.println("--> containsKey: " + n);
@@ -207,6 +450,8 @@ class Loader {
                 //                System.out.println("==> Found a node of fileType: " + n);
             } else if (n.isInstanceOf(skinClusterType)) {
                 processClusterType(n);
+            } else if (n.isInstanceOf(blendShapeType)) {
+                processBlendShapeType(n);
             } else if (n.isInstanceOf(meshType)) {
                 processMeshType(n, parentNode);
             } else if (n.isInstanceOf(jointType)) {
@@ -229,6 +474,10 @@ class Loader {
             // hack... ?
             MNode c = n.getIncomingConnectionToType("ma[" + i + "]", "joint");
             Joint jn = (Joint) resolveNode(c);
+            if (jn == null) {
+                Logger.getLogger(MayaImporter.class.getName()).log(Level.INFO, "Skinning of " + n.getName() + " skipped, one of its joints was not loaded");
+                return;
+            }
             jointNodes.add(jn);
             
             Parent rootChild = jn; // root's child, which is an ancestor of joint jn
@@ -247,8 +496,10 @@ class Loader {
         MNode origOrigMesh = resolveOrigInputMesh(n);
         //               println("ORIG ORIG={origOrigMesh}");
         
-        // TODO: What is with this? origMesh
-        resolveNode(origOrigMesh).setVisible(false);
+        if (selectedNodes == null) {
+            // TODO: What is with this? origMesh
+            resolveNode(origOrigMesh).setVisible(false);
+        }
 
         MArray bindPreMatrixArray = (MArray) n.getAttr("pm");
         Affine bindGlobalMatrix = convertMatrix((MFloatArray) n.getAttr("gm"));
@@ -259,34 +510,58 @@ class Loader {
         }
 
         MArray mayaWeights = (MArray) n.getAttr("wl");
-        float[][] weights = new float [jointNodes.size()][mayaWeights.getSize()];
+        int[][] influenceJoints = new int[mayaWeights.getSize()][];
+        float[][] influenceWeights = new float[mayaWeights.getSize()][];
         for (int i=0; i<mayaWeights.getSize(); i++) {
             MFloatArray curWeights = (MFloatArray) mayaWeights.getData(i).getData("w");
-            for (int j = 0; j < jointNodes.size(); j++) {
-                weights[j][i] = j < curWeights.getSize() ? curWeights.get(j) : 0;
+            int size = Math.min(curWeights.getSize(), jointNodes.size());
+            int count = 0;
+            for (int j = 0; j < size; j++) {
+                if (curWeights.get(j) != 0) {
+                    count++;
+                }
+            }
+            influenceJoints[i] = new int[count];
+            influenceWeights[i] = new float[count];
+            count = 0;
+            for (int j = 0; j < size; j++) {
+                if (curWeights.get(j) != 0) {
+                    influenceJoints[i][count] = j;
+                    influenceWeights[i][count++] = curWeights.get(j);
+                }
             }
         }
         
         Node sourceMayaMeshNode = resolveNode(inputMeshMNode);
         Node targetMayaMeshNode = resolveNode(outputMeshMNode);
+        if (sourceMayaMeshNode == null || targetMayaMeshNode == null) {
+            return;
+        }
+        if (intermediateMeshes.contains(inputMeshMNode)) {
+            // Only converted as the skinning source; other intermediate meshes are never converted
+            sourceMayaMeshNode.setVisible(false);
+        }
         
         if (sourceMayaMeshNode.getClass().equals(PolygonMeshView.class)) {
             PolygonMeshView sourceMayaMeshView = (PolygonMeshView) sourceMayaMeshNode;
             PolygonMeshView targetMayaMeshView = (PolygonMeshView) targetMayaMeshNode;
             
             PolygonMesh sourceMesh = (PolygonMesh) sourceMayaMeshView.getMesh();
-            SkinningMesh targetMesh = new SkinningMesh(sourceMesh, weights, bindPreMatrix, bindGlobalMatrix, jointNodes, new ArrayList<>(jointForest));
+            SkinningMesh targetMesh = new SkinningMesh(sourceMesh, influenceJoints, influenceWeights, SkinningMesh.DEFAULT_MAX_INFLUENCES,
+                    bindPreMatrix, bindGlobalMatrix, jointNodes, new ArrayList<>(jointForest));
+            targetMesh.setAsynchronous(asynchronousSkinning);
             targetMayaMeshView.setMesh(targetMesh);
+            targetMayaMeshView.setUpdatePolicy(updatePolicy);
 
-            final SkinningMeshTimer skinningMeshTimer = new SkinningMeshTimer(targetMesh);
+            MeshUpdateScheduler scheduler = MeshUpdateScheduler.getDefault();
             if (targetMayaMeshNode.getScene() != null) {
-                skinningMeshTimer.start();
+                scheduler.register(targetMesh, targetMayaMeshView);
             }
             targetMayaMeshView.sceneProperty().addListener((observable, oldValue, newValue) -> {
                 if (newValue == null) {
-                    skinningMeshTimer.stop();
+                    scheduler.unregister(targetMesh);
                 } else {
-                    skinningMeshTimer.start();
+                    scheduler.register(targetMesh, targetMayaMeshView);
                 }
             });
         } else {
@@ -302,15 +577,115 @@ class Loader {
         }
     }
     
-    private class SkinningMeshTimer extends AnimationTimer {
-        private final SkinningMesh mesh;
-        SkinningMeshTimer(SkinningMesh mesh) {
-            this.mesh = mesh;
+    // Blend shapes are only converted when they feed a polygon mesh, directly or through
+    // a skinCluster, and their targets were saved as point deltas rather than live meshes
+    protected void processBlendShapeType(MNode n) {
+        loaded.put(n, null);
+
+        // Follow the output geometry through groupParts to the mesh or skinCluster it feeds
+        List<MPath> ogPaths = n.getPathsConnectingFrom("og[0]");
+        if (ogPaths.isEmpty()) {
+            ogPaths = n.getPathsConnectingFrom("og");
         }
-        @Override
-        public void handle(long l) {
-            mesh.update();
+        MNode downstream = ogPaths.isEmpty() ? null : ogPaths.get(0).getTargetNode();
+        while (downstream != null && downstream.isInstanceOf(groupPartsType)) {
+            List<MPath> next = downstream.getPathsConnectingFrom("og");
+            downstream = next.isEmpty() ? null : next.get(0).getTargetNode();
+        }
+        MNode outputMeshMNode;
+        if (downstream != null && downstream.isInstanceOf(skinClusterType)) {
+            // the skinning mesh must exist before the blend shape can feed it
+            resolveNode(downstream);
+            outputMeshMNode = resolveOutputMesh(downstream);
+        } else if (downstream != null && downstream.isInstanceOf(meshType)) {
+            outputMeshMNode = downstream;
+        } else {
+            Logger.getLogger(MayaImporter.class.getName()).log(Level.INFO, "Blend shape " + n.getName() + " skipped, it doesn't feed a mesh or a skinCluster");
+            return;
+        }
+        MNode origMeshMNode;
+        try {
+            origMeshMNode = resolveOrigInputMesh(n);
+        } catch (RuntimeException e) {
+            // no groupParts/tweak chain to follow back to the original mesh
+            origMeshMNode = null;
+        }
+        Node outputNode = outputMeshMNode == null ? null : resolveNode(outputMeshMNode);
+        if (origMeshMNode == null || outputNode == null) {
+            return;
+        }
+        if (!(outputNode instanceof PolygonMeshView)) {
+            Logger.getLogger(MayaImporter.class.getName()).log(Level.INFO, "Blend shapes are not supported for triangle meshes. Select the 'Load as Polygons' option to load the mesh as polygon mesh.");
+            return;
+        }
+        PolygonMeshView targetMeshView = (PolygonMeshView) outputNode;
+        PolygonMesh targetMesh = targetMeshView.getMesh();
+        Object origMesh = convertedMeshes.containsKey(origMeshMNode) ? convertedMeshes.get(origMeshMNode)
+                : new MeshConverter(origMeshMNode, asPolygonMesh).convert();
+        float[] basePoints = ((PolygonMesh) origMesh).getPoints().toArray(null);
+        if (basePoints.length != targetMesh.getPoints().size()) {
+            Logger.getLogger(MayaImporter.class.getName()).log(Level.INFO, "Blend shape " + n.getName() + " skipped, its input and output meshes differ in size");
+            return;
+        }
+
+        // Targets at full weight are stored in inputTargetItem 6000, in-betweens are ignored
+        MArray inputTargets = (MArray) n.getAttr("it");
+        MArray targetGroups = inputTargets.getSize() == 0 ? null : (MArray) ((MCompound) inputTargets.get().get(0)).getFieldData("itg");
+        MFloatArray mayaWeights = (MFloatArray) n.getAttr("w");
+        int nTargets = targetGroups == null ? 0 : targetGroups.getSize();
+        int nPoints = basePoints.length / 3;
+        int[][] targetIndices = new int[nTargets][];
+        float[][] targetDeltas = new float[nTargets][];
+        float[] weights = new float[nTargets];
+        int missingTargets = 0;
+        for (int t = 0; t < nTargets; t++) {
+            weights[t] = t < mayaWeights.getSize() ? mayaWeights.get(t) : 0;
+            MArray items = (MArray) ((MCompound) targetGroups.get().get(t)).getFieldData("iti");
+            MCompound item = items.getSize() > 6000 ? (MCompound) items.get().get(6000) : null;
+            MFloat3Array ipt = item == null ? null : (MFloat3Array) item.getFieldData("ipt");
+            MComponentList ict = item == null ? null : (MComponentList) item.getFieldData("ict");
+            int[] indices = new int[ipt == null ? 0 : ipt.getSize()];
+            int count = 0;
+            if (ict != null) {
+                for (MComponentList.Component c : ict.get()) {
+                    if (!"vtx".equals(c.name())) {
+                        continue;
+                    }
+                    int start = c.startIndex() < 0 ? 0 : c.startIndex();
+                    int end = c.startIndex() < 0 ? nPoints - 1 : Math.min(c.endIndex(), nPoints - 1);
+                    for (int i = start; i <= end && count < indices.length; i++) {
+                        indices[count++] = i;
+                    }
+                }
+            }
+            if (count == 0) {
+                missingTargets++;
+            }
+            targetIndices[t] = Arrays.copyOf(indices, count);
+            targetDeltas[t] = count == 0 ? new float[0] : Arrays.copyOf(ipt.get(), 3 * count);
+        }
+        if (missingTargets > 0) {
+            Logger.getLogger(MayaImporter.class.getName()).log(Level.INFO, missingTargets + " targets of blend shape " + n.getName() + " have no stored point deltas and are ignored");
+        }
+
+        BlendShape blendShape = new BlendShape(targetMesh, basePoints, targetIndices, targetDeltas, weights);
+        blendShape.update();
+        blendShapes.put(n, blendShape);
+        if (targetMeshView.getUpdatePolicy() == null) {
+            targetMeshView.setUpdatePolicy(updatePolicy);
+        }
+
+        MeshUpdateScheduler scheduler = MeshUpdateScheduler.getDefault();
+        if (targetMeshView.getScene() != null) {
+            scheduler.register(blendShape, targetMeshView);
         }
+        targetMeshView.sceneProperty().addListener((observable, oldValue, newValue) -> {
+            if (newValue == null) {
+                scheduler.unregister(blendShape);
+            } else {
+                scheduler.register(blendShape, targetMeshView);
+            }
+        });
     }
 
     protected Image loadImageFromFtnAttr(MNode fileNode, String name) {
@@ -472,7 +847,10 @@ class Loader {
             }
         }
 
-        Object mesh = convertToFXMesh(n);
+        Object mesh = convertedMeshes.remove(n);
+        if (mesh == null) {
+            mesh = new MeshConverter(n, asPolygonMesh).convert();
+        }
 
         if (asPolygonMesh) {
             PolygonMeshView mv = new PolygonMeshView();
@@ -734,7 +1112,7 @@ class Loader {
                         }
                         // Note: may also want to consider adding rpt in addition to rp and sp
                         if (ref != null) {
-                            convertAnimCurveRange(n, ref, true);
+                            animCurves.add(new AnimCurveTarget(n, ref));
                         }
                     }
                 }
@@ -784,110 +1162,25 @@ class Loader {
                                 break;
                         }
                         if (ref != null) {
-                            convertAnimCurveRange(n, ref, true);
+                            animCurves.add(new AnimCurveTarget(n, ref));
                         }
                     }
                 }
                 break;
             }
-        }
-    }
-
-    private Object convertToFXMesh(MNode n) {
-        mVerts = (MFloat3Array) n.getAttr("vt");
-        MPolyFace mPolys = (MPolyFace) n.getAttr("fc");
-        mPointTweaks = (MFloat3Array) n.getAttr("pt");
-        MInt3Array mEdges = (MInt3Array) n.getAttr("ed");
-        edgeData = mEdges.get();
-        uvSet = ((MArray) n.getAttr("uvst")).get();
-        String currentUVSet = ((MString) n.getAttr("cuvs")).get();
-        for (int i = 0; i < uvSet.size(); i++) {
-            if (((MString) uvSet.get(i).getData("uvsn")).get().equals(currentUVSet)) {
-                uvChannel = i;
-            }
-        }
-
-        if (mPolys.getFaces() == null) {
-            if (asPolygonMesh) {
-                return new PolygonMesh();
-            } else {
-                return new TriangleMesh();
-            }
-        }
-
-        MFloat3Array normals = (MFloat3Array) n.getAttr("n");
-        return buildMeshData(mPolys.getFaces(), normals);
-    }
-
-    private int edgeVert(int edgeNumber, boolean start) {
-        boolean reverse = (edgeNumber < 0);
-        if (reverse) {
-            edgeNumber = reverse(edgeNumber);
-            return edgeData[3 * edgeNumber + (start ? 1 : 0)];
-        } else {
-            return edgeData[3 * edgeNumber + (start ? 0 : 1)];
-        }
-    }
-
-    private int reverse(int edge) {
-        if (edge < 0) {
-            return -edge - 1;
-        }
-        return edge;
-    }
-
-    private boolean edgeIsSmooth(int edgeNumber) {
-        edgeNumber = reverse(edgeNumber);
-        return edgeData[3 * edgeNumber + 2] != 0;
-    }
-
-    private int edgeStart(int edgeNumber) {
-        return edgeVert(edgeNumber, true);
-    }
-
-    private int edgeEnd(int edgeNumber) {
-        return edgeVert(edgeNumber, false);
-    }
-
-    private float[] getTexCoords(int uvChannel) {
-        if (uvSet == null || uvChannel < 0 || uvChannel >= uvSet.size()) {
-            return new float[] {0,0};
-        }
-        MCompound compound = (MCompound) uvSet.get(uvChannel);
-        MFloat2Array uvs = (MFloat2Array) compound.getFieldData("uvsp");
-        if (uvs == null || uvs.get() == null) {
-            return new float[] {0,0};
-        }
-
-        float[] texCoords = new float[uvs.getSize() * 2];
-        float[] uvsData = uvs.get();
-        for (int i = 0; i < uvs.getSize(); i++) {
-            //note the 1 - v
-            texCoords[i * 2] = uvsData[2 * i];
-            texCoords[i * 2 + 1] = 1 - uvsData[2 * i + 1];
-        }
-        return texCoords;
-    }
-
-    private void getVert(int index, Vec3f vert) {
-        float[] verts = mVerts.get();
-        float[] tweaks = null;
-        if (mPointTweaks != null) {
-            tweaks = mPointTweaks.get();
-            if (tweaks != null) {
-                if ((3 * index + 2) >= tweaks.length) {
-                    tweaks = null;
+            if (toNode.isInstanceOf(blendShapeType)) {
+                resolveNode(toNode);
+                BlendShape blendShape = blendShapes.get(toNode);
+                String s = path.getComponentSelector();
+                if (blendShape != null && s != null && s.startsWith("w[") && s.endsWith("]")) {
+                    int target = Integer.parseInt(s.substring(2, s.length() - 1));
+                    if (target < blendShape.getTargetCount()) {
+                        animCurves.add(new AnimCurveTarget(n, blendShape.weightProperty(target)));
+                    }
                 }
+                break;
             }
         }
-        if (tweaks == null) {
-            vert.set(verts[3 * index + 0], verts[3 * index + 1], verts[3 * index + 2]);
-        } else {
-            vert.set(
-                    verts[3 * index + 0] + tweaks[3 * index + 0],
-                    verts[3 * index + 1] + tweaks[3 * index + 1],
-                    verts[3 * index + 2] + tweaks[3 * index + 2]);
-        }
     }
 
     float FPS = 24.0f;
@@ -912,18 +1205,60 @@ class Loader {
     // Empirically derived from playing with animation curve editor
     float TAN_EPSILON = 0.05f;
 
+    private static class AnimCurveTarget {
+        final MNode curve;
+        final DoubleProperty property;
+
+        AnimCurveTarget(MNode curve, DoubleProperty property) {
+            this.curve = curve;
+            this.property = property;
+        }
+    }
+
+    //=========================================================================
+    // Loader.convertAnimCurves
+    //-------------------------------------------------------------------------
+    // Converts the anim curves found while resolving concurrently on the
+    // common fork-join pool. Reading attributes decodes them into the node,
+    // so each curve node is converted once, by a single thread, and its
+    // channel is then bound to every property the curve drives. The
+    // channels are added in the order the curves were found.
+    //=========================================================================
+    void convertAnimCurves() {
+        Map<MNode, DoubleProperty> firstTargets = new LinkedHashMap<>();
+        for (AnimCurveTarget target : animCurves) {
+            firstTargets.putIfAbsent(target.curve, target.property);
+        }
+        List<MNode> curves = new ArrayList<>(firstTargets.keySet());
+        AnimationChannel[] results = new AnimationChannel[curves.size()];
+        IntStream.range(0, results.length).parallel().forEach(i -> {
+            MNode curve = curves.get(i);
+            results[i] = convertAnimCurveRange(curve, firstTargets.get(curve), true);
+        });
+        Map<MNode, AnimationChannel> converted = new HashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            converted.put(curves.get(i), results[i]);
+        }
+        for (AnimCurveTarget target : animCurves) {
+            AnimationChannel channel = converted.get(target.curve);
+            if (channel != null) {
+                channels.add(channel.getTarget() == target.property ? channel : channel.withTarget(target.property));
+            }
+        }
+        animCurves.clear();
+    }
+
     //=========================================================================
     // Loader.convertAnimCurveRange
     //-------------------------------------------------------------------------
-    // This method adds to keyFrameMap which is a
-    // TreeMap Map<Float, List<KeyValue>>
+    // This method bakes the keys of the anim curve driving the property
+    // into an AnimationChannel, or returns null if it has no keys
     //=========================================================================
-    void convertAnimCurveRange(
+    AnimationChannel convertAnimCurveRange(
             MNode n, final DoubleProperty property,
             boolean convertAnglesToDegrees) {
         List<MConnection> inputs = n.getConnectionsTo("i");
         boolean isDrivenAnimCurve = (inputs.size() > 0);
-        boolean useTangentInterpolator = true;  // use the NEW tangent interpolator
 
         //---------------------------------------------------------------------
         // Tangent types we need to handle:
@@ -971,7 +1306,7 @@ class Loader {
                 (n.isInstanceOf(animCurveUA) || n.isInstanceOf(animCurveUL) ||
                         n.isInstanceOf(animCurveUT) || n.isInstanceOf(animCurveUU));
 
-        List<KeyFrame> drivenKeys = new LinkedList<>();
+        AnimationChannel.Builder channel = new AnimationChannel.Builder(property);
 
         // Many incoming animation curves start at keyframe 1; to
         // correctly interpret these we need to subtract off one frame
@@ -1118,133 +1453,126 @@ class Loader {
                     // Temporaries
                     keyTimes, keyValues, keysValid);
 
-            // Create the appropriate interpolator type:
+            // Determine the interpolation type:
             // [*] DISCRETE for STEPPED type for prevOutTanType
-            // [*] Interpolator.TANGENT
-            // [*] custom Maya animation curve interpolator if specified
-            Interpolator interp = Interpolator.DISCRETE;
+            // [*] TANGENT, with the tangents of Interpolator.TANGENT
+            AnimationChannel.Interpolation interpolation = AnimationChannel.Interpolation.DISCRETE;
+            double inMillis = 0;
+            double inValue = 0;
+            double outMillis = 0;
+            double outValue = 0;
             if (prevOutTanType == TAN_STEPPED) {
-                // interp = DISCRETE;
+                // interpolation = DISCRETE;
             } else {
-                if (useTangentInterpolator) {
-                    //--------------------------------------------------
-                    // TangentIntepolator
-                    double k_ix = curInTan[0];
-                    double k_iy = curInTan[1];
-                    // don't use prevOutTan for tangentInterpolator
-                    // double k_ox = prevOutTan[0];
-                    // double k_oy = prevOutTan[1];
-                    double k_ox = curOutTan[0];
-                    double k_oy = curOutTan[1];
-
-                    /*
-                      if (DEBUG) System.out.println("n.getName(): " + n.getName());
-                      if (DEBUG) System.out.println("(k_ix = " + k_ix + ", " +
-                      "k_iy = " + k_iy + ", " +
-                      "k_ox = " + k_ox + ", " +
-                      "k_oy = " + k_oy + ")"
-                      );
-                    */
-
-                    // if (DEBUG) System.out.println("FPS = " + FPS);
-
-                    double inTangent = 0.0;
-                    double outTangent = 0.0;
-
-                    // Compute the in tangent
-                    if (k_ix != 0) {
-                        inTangent = k_iy / (k_ix * FPS);
-                    }
-                    // Compute the out tangent
-                    if (k_ox != 0) {
-                        outTangent = k_oy / (k_ox * FPS);
-                    }
+                //--------------------------------------------------
+                // TangentIntepolator
+                double k_ix = curInTan[0];
+                double k_iy = curInTan[1];
+                // don't use prevOutTan for tangentInterpolator
+                // double k_ox = prevOutTan[0];
+                // double k_oy = prevOutTan[1];
+                double k_ox = curOutTan[0];
+                double k_oy = curOutTan[1];
+
+                /*
+                  if (DEBUG) System.out.println("n.getName(): " + n.getName());
+                  if (DEBUG) System.out.println("(k_ix = " + k_ix + ", " +
+                  "k_iy = " + k_iy + ", " +
+                  "k_ox = " + k_ox + ", " +
+                  "k_oy = " + k_oy + ")"
+                  );
+                */
+
+                // if (DEBUG) System.out.println("FPS = " + FPS);
+
+                double inTangent = 0.0;
+                double outTangent = 0.0;
+
+                // Compute the in tangent
+                if (k_ix != 0) {
+                    inTangent = k_iy / (k_ix * FPS);
+                }
+                // Compute the out tangent
+                if (k_ox != 0) {
+                    outTangent = k_oy / (k_ox * FPS);
+                }
 
-                    // Compute 1/3 of the time interval of this keyframe
-                    double oneThirdDeltaPrev = durationPrev / 3.0f;
-                    double oneThirdDeltaNext = durationNext / 3.0f;
-
-                    // Note: for angular animation curves, the tangents encode
-                    // changes in radians rather than degrees. Now that our
-                    // animation curves also emit radians, no conversion is
-                    // necessary here.
-                    double inTangentValue = -1 * inTangent * oneThirdDeltaPrev + kv;
-                    double outTangentValue = outTangent * oneThirdDeltaNext + kv;
-                    // We need to add "+ kv", because the value for the tangent
-                    // interpolator is in "world space" and not relative to the key
-
-                    if (inTangentValue > MAXIMUM) {
-                        inTangentValue = MAXIMUM;
-                    }
-                    if (outTangentValue > MAXIMUM) {
-                        outTangentValue = MAXIMUM;
-                    }
+                // Compute 1/3 of the time interval of this keyframe
+                double oneThirdDeltaPrev = durationPrev / 3.0f;
+                double oneThirdDeltaNext = durationNext / 3.0f;
+
+                // Note: for angular animation curves, the tangents encode
+                // changes in radians rather than degrees. Now that our
+                // animation curves also emit radians, no conversion is
+                // necessary here.
+                double inTangentValue = -1 * inTangent * oneThirdDeltaPrev + kv;
+                double outTangentValue = outTangent * oneThirdDeltaNext + kv;
+                // We need to add "+ kv", because the value for the tangent
+                // interpolator is in "world space" and not relative to the key
+
+                if (inTangentValue > MAXIMUM) {
+                    inTangentValue = MAXIMUM;
+                }
+                if (outTangentValue > MAXIMUM) {
+                    outTangentValue = MAXIMUM;
+                }
 
-                    double timeDeltaPrev = (durationPrev / FPS) * 1000f / 3.0f;  // in ms
-                    double timeDeltaNext = (durationNext / FPS) * 1000f / 3.0f;  // in ms
-
-                    if (true) {
-                        //                        if (DEBUG) System.out.println("________________________________________");
-                        //                        if (DEBUG) System.out.println("n.getName() = " + n.getName());
-                        //                        if (DEBUG) System.out.println("kv = " + kv);
-                        //                        if (DEBUG) System.out.println("Interpolator.TANGENT(" +
-                        //                                           "Duration.valueOf(" +
-                        //                                           timeDeltaPrev + ")" + ", " +
-                        //                                           inTangentValue + ", " +
-                        //                                           "Duration.valueOf(" +
-                        //                                           timeDeltaNext + ")" + ", " +
-                        //                                           outTangentValue + ");"
-                        //                                           );
+                double timeDeltaPrev = (durationPrev / FPS) * 1000f / 3.0f;  // in ms
+                double timeDeltaNext = (durationNext / FPS) * 1000f / 3.0f;  // in ms
+
+                if (true) {
+                    //                        if (DEBUG) System.out.println("________________________________________");
+                    //                        if (DEBUG) System.out.println("n.getName() = " + n.getName());
+                    //                        if (DEBUG) System.out.println("kv = " + kv);
+                    //                        if (DEBUG) System.out.println("Interpolator.TANGENT(" +
+                    //                                           "Duration.valueOf(" +
+                    //                                           timeDeltaPrev + ")" + ", " +
+                    //                                           inTangentValue + ", " +
+                    //                                           "Duration.valueOf(" +
+                    //                                           timeDeltaNext + ")" + ", " +
+                    //                                           outTangentValue + ");"
+                    //                                           );
 
-                    }
+                }
 
-                    //--------------------------------------------------
-                    // Given the diagram below, where
-                    //     k = keyframe
-                    //     i = inTangent
-                    //     o = outTangent
-                    //     + = timeDelta
-                    // Its extremely important to note that
-                    // inTangent's and outTangent's values for "i" and "o"
-                    // are NOT relative to "k".  They are in "worldSpace".
-                    // However, the timeDeltaNext and timeDeltaPrev
-                    // are in fact relative to the keyframe "k",
-                    // and are always an absolute value.
-                    // So, in summary,
-                    // the Y-axis values are not relative, but
-                    // the X-axis values are relative, and always positive
-                    //--------------------------------------------------
-                    // (Y-axis worldSpace value for i)
-                    //    inTangent i
-                    //              |
-                    //              |        timeDeltaNext (relative to x)
-                    //              |         |<------->|
-                    //              +---------k---------+
-                    //              |<------->|         |
-                    //             timeDeltaPrev        |
-                    //                                  |
-                    //                                  o outTangent
-                    //                  (Y-axis worldSpace value for o)
-                    //--------------------------------------------------
-                    Duration inDuration = Duration.millis(timeDeltaPrev);
-                    if (inDuration.toMillis() == 0) {
-                        interp = Interpolator.TANGENT(Duration.millis(timeDeltaNext), outTangentValue);
-                    } else {
-                        interp = Interpolator.TANGENT(
-                                inDuration, inTangentValue,
-                                Duration.millis(timeDeltaNext), outTangentValue);
-                    }
+                //--------------------------------------------------
+                // Given the diagram below, where
+                //     k = keyframe
+                //     i = inTangent
+                //     o = outTangent
+                //     + = timeDelta
+                // Its extremely important to note that
+                // inTangent's and outTangent's values for "i" and "o"
+                // are NOT relative to "k".  They are in "worldSpace".
+                // However, the timeDeltaNext and timeDeltaPrev
+                // are in fact relative to the keyframe "k",
+                // and are always an absolute value.
+                // So, in summary,
+                // the Y-axis values are not relative, but
+                // the X-axis values are relative, and always positive
+                //--------------------------------------------------
+                // (Y-axis worldSpace value for i)
+                //    inTangent i
+                //              |
+                //              |        timeDeltaNext (relative to x)
+                //              |         |<------->|
+                //              +---------k---------+
+                //              |<------->|         |
+                //             timeDeltaPrev        |
+                //                                  |
+                //                                  o outTangent
+                //                  (Y-axis worldSpace value for o)
+                //--------------------------------------------------
+                interpolation = AnimationChannel.Interpolation.TANGENT;
+                if (timeDeltaPrev == 0) {
+                    inMillis = timeDeltaNext;
+                    inValue = outTangentValue;
                 } else {
-                    MayaAnimationCurveInterpolator mayaInterp =
-                            createMayaAnimationCurveInterpolator(
-                                    prevOutTan[0], prevOutTan[1],
-                                    curInTan[0], curInTan[1],
-                                    durationPrev,
-                                    true);
-                    // mayaInterp.isRotation = isRotation;  // was commented out long ago by Ken/Chris
-                    // mayaInterp.debug = targetName + "." + keyName + "@"+ kt;
-                    interp = mayaInterp;
+                    inMillis = timeDeltaPrev;
+                    inValue = inTangentValue;
                 }
+                outMillis = timeDeltaNext;
+                outValue = outTangentValue;
             }
 
             float t = kt - EPSILON;
@@ -1277,7 +1605,6 @@ class Loader {
                 }
             }
             // if (DEBUG) System.out.println("creating key value at: " + t + ": " + targetName + "." + keyName);
-            KeyValue keyValue = new KeyValue(property, kv, interp);  // [!] API change
 
             // If the first frame is at frame 1,
             // at least for now, try adding in a frame at frame 0
@@ -1286,36 +1613,13 @@ class Loader {
             // if there is no key at frame 0.
             if (needsOneFrameAdjustment && (j == 0)) {
                 Logger.getLogger(MayaImporter.class.getName()).log(Level.FINEST, "[!] ATTEMPTING FRAME ONE ADJUSTMENT [!]");
-                // [!] API change
-                // KeyValue keyValue0 = new KeyValue(property, kv, Interpolator.LINEAR);
-                KeyValue keyValue0 = new KeyValue(property, kv);
-                addKeyframe(0.0f, keyValue0);
+                channel.addKey(0.0f, kv, AnimationChannel.Interpolation.LINEAR);
             }
 
-            // Add keyframe
-            addKeyframe(t, keyValue);
-
-            /*
-            // If you're at the last keyframe,
-            // at least for now, try adding in an extra frame
-            // to pad the ending
-            if (j == (len - 1)) {
-                addKeyframe((t+0.0001667f), keyValue);
-            }
-            */
+            // Add key
+            channel.addKey(t, kv, interpolation, inMillis, inValue, outMillis, outValue);
         }
-    }
-
-    //=========================================================================
-    // Loader.addKeyframe
-    //=========================================================================
-    void addKeyframe(float t, KeyValue keyValue) {
-        List<KeyValue> vals = keyFrameMap.get(t);
-        if (vals == null) {
-            vals = new LinkedList<>();
-            keyFrameMap.put(t, vals);
-        }
-        vals.add(keyValue);
+        return channel.size() > 0 ? channel.build() : null;
     }
 
     //=========================================================================
@@ -1644,141 +1948,6 @@ class Loader {
         }
     }
 
-    private Object buildMeshData(List<MPolyFace.FaceData> faces, MFloat3Array normals) {
-        // Setup vertexes
-        float[] verts = mVerts.get();
-        float[] tweaks = null;
-        if (mPointTweaks != null) {
-            tweaks = mPointTweaks.get();
-        }
-        float[] points = new float[verts.length];
-        for (int index = 0; index < verts.length; index += 3) {
-            if (tweaks != null && tweaks.length > index + 2) {
-                points[index] = verts[index] + tweaks[index];
-                points[index + 1] = verts[index + 1] + tweaks[index + 1];
-                points[index + 2] = verts[index + 2] + tweaks[index + 2];
-            } else {
-                points[index] = verts[index];
-                points[index + 1] = verts[index + 1];
-                points[index + 2] = verts[index + 2];
-            }
-        }
-
-        // copy UV as-is (if any)
-        float[] texCoords = getTexCoords(uvChannel);
-
-        if (asPolygonMesh) {
-            List<int[]> ff = new ArrayList<>();
-            for (int f = 0; f < faces.size(); f++) {
-                MPolyFace.FaceData faceData = faces.get(f);
-                int[] faceEdges = faceData.getFaceEdges();
-                int[][] uvData = faceData.getUVData();
-                int[] uvIndices = uvData == null ? null : uvData[uvChannel];
-                if (faceEdges != null && faceEdges.length > 0) {
-                    int[] polyFace = new int[faceEdges.length * 2];
-                    for (int i = 0; i < faceEdges.length; i++) {
-                        int vIndex = edgeStart(faceEdges[i]);
-                        int uvIndex = uvIndices == null ? 0 : uvIndices[i];
-                        polyFace[i*2] = vIndex;
-                        polyFace[i*2+1] = uvIndex;
-                    }
-                    ff.add(polyFace);
-                }
-            }
-            int[][] facesArray = ff.toArray(new int[ff.size()][]);
-            
-            int[][] faceNormals = new int[facesArray.length][];
-            int normalInd = 0;
-            for (int f = 0; f < faceNormals.length; f++) {
-                faceNormals[f] = new int[facesArray[f].length/2];
-                for (int e = 0; e < faceNormals[f].length; e++) {
-                    faceNormals[f][e] = normalInd++;
-                }
-            }
-            int[] smGroups;
-            // we can only figure out faces' normal indices if the faces' normal indices have a one-to-one ordered correspondence with the normals
-            if (normalInd == normals.getSize()) {
-                smGroups = SmoothingGroups.calcSmoothGroups(facesArray, faceNormals, normals.get());
-            } else {
-                smGroups = new int[facesArray.length];
-                Arrays.fill(smGroups, 1);
-            }
-
-            PolygonMesh mesh = new PolygonMesh();
-            mesh.getPoints().setAll(points);
-            mesh.getTexCoords().setAll(texCoords);
-            mesh.setFaces(facesArray);
-            mesh.getFaceSmoothingGroups().setAll(smGroups);
-            return mesh;
-        } else {
-            // Split the polygonal faces into triangle faces
-            List<Integer> ff = new ArrayList<>();
-            List<Integer> nn = new ArrayList<>();
-            int nIndex = 0;
-            
-            for (int f = 0; f < faces.size(); f++) {
-                MPolyFace.FaceData faceData = faces.get(f);
-                int[] faceEdges = faceData.getFaceEdges();
-                int[][] uvData = faceData.getUVData();
-                int[] uvIndices = uvData == null ? null : uvData[uvChannel];
-                if (faceEdges != null && faceEdges.length > 0) {
-
-                    // Generate triangle fan about the first vertex
-                    int vIndex0 = edgeStart(faceEdges[0]);
-                    int uvIndex0 = uvIndices == null ? 0 : uvIndices[0];
-                    int nIndex0 = nIndex++;
-
-                    int vIndex1 = edgeStart(faceEdges[1]);
-                    int uvIndex1 = uvIndices == null ? 0 : uvIndices[1];
-                    int nIndex1 = nIndex++;
-
-                    for (int i = 2; i < faceEdges.length; i++) {
-                        int vIndex2 = edgeStart(faceEdges[i]);
-                        int uvIndex2 = uvIndices == null ? 0 : uvIndices[i];
-                        int nIndex2 = nIndex++;
-
-                        ff.add(vIndex0);
-                        ff.add(uvIndex0);
-                        ff.add(vIndex1);
-                        ff.add(uvIndex1);
-                        ff.add(vIndex2);
-                        ff.add(uvIndex2);
-                        nn.add(nIndex0);
-                        nn.add(nIndex1);
-                        nn.add(nIndex2);
-
-                        vIndex1 = vIndex2;
-                        uvIndex1 = uvIndex2;
-                    }
-                }
-            }
-            int[] fff = new int[ff.size()];
-            for (int i = 0; i < fff.length; i++) {
-                fff[i] = ff.get(i);
-            }
-
-            TriangleMesh mesh = new TriangleMesh();
-            int[] smGroups;
-            // we can only figure out faces' normal indices if the faces' normal indices have a one-to-one ordered correspondence with the normals
-            if (nIndex == normals.getSize()) {
-                int[] faceNormals = new int[nn.size()];
-                for (int i = 0; i < faceNormals.length; i++) {
-                    faceNormals[i] = nn.get(i);
-                }
-                smGroups = SmoothingGroups.calcSmoothGroups(mesh, fff, faceNormals, normals.get());
-            } else {
-                smGroups = new int[fff.length/6];
-                Arrays.fill(smGroups, 1);
-            }
-            
-            mesh.getPoints().setAll(points);
-            mesh.getTexCoords().setAll(texCoords);
-            mesh.getFaces().setAll(fff);
-            mesh.getFaceSmoothingGroups().setAll(smGroups);
-            return mesh;
-        }
-    }
-
     MNode resolveOutputMesh(MNode n) {
         MNode og;
         List<MPath> ogc0 = n.getPathsConnectingFrom("og[0]");
@@ -2555,6 +2555,7 @@ Less or Equal */
         addDataType(new MPolyFaceType(this));
         addDataType(new MMatrixType(this));
         addDataType(new MComponentListType(this));
+        addDataType(new MPointArrayType(this));
         addDataType(new MNurbsCurveType(this));
 
 
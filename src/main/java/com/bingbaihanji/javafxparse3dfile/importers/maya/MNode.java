@@ -32,6 +32,7 @@
 
 package com.bingbaihanji.javafxparse3dfile.importers.maya;
 
+import com.bingbaihanji.javafxparse3dfile.importers.maya.parser.DeferredSetAttr;
 import com.bingbaihanji.javafxparse3dfile.importers.maya.types.MArrayType;
 import com.bingbaihanji.javafxparse3dfile.importers.maya.types.MDataType;
 import com.bingbaihanji.javafxparse3dfile.importers.maya.values.MData;
@@ -43,6 +44,8 @@ public class MNode extends MObject {
     MNodeType nodeType;
     boolean hasLocalType = false;
     Map<String, MData> values = new HashMap<>();
+    // setAttr values not decoded yet, keyed by the short name of the attribute they start at
+    Map<String, List<DeferredSetAttr>> deferred;
 
     public void createInstance(String instanceName) {
     }
@@ -129,6 +132,7 @@ public class MNode extends MObject {
 
     @Override
     public void accept(MEnv.Visitor visitor) {
+        decodeDeferred();
         visitor.visitNode(this);
         for (Map.Entry<String, MData> e : values.entrySet()) {
             visitor.visitNodeAttribute(
@@ -235,6 +239,14 @@ public class MNode extends MObject {
     }
 
     public MData getAttr(MAttribute attribute) {
+        if (deferred != null) {
+            List<DeferredSetAttr> pending = deferred.remove(attribute.getShortName());
+            if (pending != null) {
+                for (DeferredSetAttr setAttr : pending) {
+                    setAttr.apply(this);
+                }
+            }
+        }
         MData data = values.get(attribute.getShortName());
         if (data == null) {
             if (data == null) {
@@ -280,9 +292,59 @@ public class MNode extends MObject {
             // System.err.println("WARNING: attribute " +name+" not found in type: " + getNodeType().getName());
         }
         // System.err.println("setAttr + " + getName() + " " + value);
+        if (deferred != null) {
+            deferred.remove(name);
+        }
         values.put(name, value);
     }
 
+    /** Indicates whether a value was set for the given attribute, decoded or not. */
+    public boolean isAttrSet(String name) {
+        MAttribute attribute = getNodeType().getAttribute(name);
+        if (attribute == null) {
+            return false;
+        }
+        String shortName = attribute.getShortName();
+        return values.containsKey(shortName) || (deferred != null && deferred.containsKey(shortName));
+    }
+
+    /** Records a setAttr whose value is decoded the first time the given attribute is accessed. */
+    public void defer(String attr, DeferredSetAttr setAttr) {
+        if (deferred == null) {
+            deferred = new HashMap<>();
+        }
+        deferred.computeIfAbsent(attr, k -> new ArrayList<>()).add(setAttr);
+    }
+
+    /** Decodes the deferred setAttr values of the given attributes, or of all attributes if none are given. */
+    public void decodeDeferred(String... attrs) {
+        if (deferred == null || deferred.isEmpty()) {
+            return;
+        }
+        if (attrs.length == 0) {
+            attrs = deferred.keySet().toArray(new String[0]);
+        }
+        for (String attr : attrs) {
+            MAttribute attribute = getNodeType().getAttribute(attr);
+            if (attribute != null) {
+                getAttr(attribute);
+            }
+        }
+    }
+
+    /** Returns the number of source characters of setAttr values not decoded yet. */
+    public long getDeferredLength() {
+        long length = 0;
+        if (deferred != null) {
+            for (List<DeferredSetAttr> pending : deferred.values()) {
+                for (DeferredSetAttr setAttr : pending) {
+                    length += setAttr.length();
+                }
+            }
+        }
+        return length;
+    }
+
     public Set<MConnection> getIncomingConnections() {
         return getEnv().getIncomingConnections(this);
     }
@@ -32,19 +32,21 @@
  */
 package com.bingbaihanji.javafxparse3dfile.importers.maya;
 
-import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.scene.DepthTest;
 import javafx.scene.Node;
 import javafx.scene.shape.MeshView;
 import javafx.scene.shape.TriangleMesh;
-import javafx.util.Duration;
 import com.bingbaihanji.javafxparse3dfile.importers.Importer;
 import com.bingbaihanji.javafxparse3dfile.importers.Model3D;
+import com.bingbaihanji.javafxparse3dfile.importers.animation.AnimationClip;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.MeshUpdatePolicy;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,6 +57,66 @@ public class MayaImporter implements Importer {
 
     private static final String SUPPORTED_EXT = "ma";
 
+    private boolean deferredDecoding;
+
+    /**
+     * Sets whether setAttr values are decoded lazily, on first access, with the
+     * mesh, skin and animation payloads decoded in parallel. Off by default.
+     */
+    public void setDeferredDecoding(boolean deferredDecoding) {
+        this.deferredDecoding = deferredDecoding;
+    }
+
+    public boolean isDeferredDecoding() {
+        return deferredDecoding;
+    }
+
+    private boolean asynchronousSkinning;
+
+    /**
+     * Sets whether skinned meshes compute their deformed points on a worker
+     * thread and swap them in on the next pulse, one frame late. Off by default.
+     */
+    public void setAsynchronousSkinning(boolean asynchronousSkinning) {
+        this.asynchronousSkinning = asynchronousSkinning;
+    }
+
+    public boolean isAsynchronousSkinning() {
+        return asynchronousSkinning;
+    }
+
+    private boolean reachableOnly;
+    private final Set<String> includedNodeTypes = new HashSet<>();
+    private final Set<String> excludedNodeTypes = new HashSet<>();
+
+    /**
+     * Sets whether only the nodes reachable from visible meshes and transforms,
+     * through the DAG and incoming connections, are decoded and converted.
+     * Off by default.
+     */
+    public void setReachableOnly(boolean reachableOnly) {
+        this.reachableOnly = reachableOnly;
+    }
+
+    public boolean isReachableOnly() {
+        return reachableOnly;
+    }
+
+    /**
+     * Returns the modifiable set of Maya node type names to import, e.g.
+     * "mesh" or "animCurve"; subtypes are included too. When empty all types
+     * are imported. A filtered import implies deferred decoding, so filtered
+     * nodes are never decoded.
+     */
+    public Set<String> getIncludedNodeTypes() {
+        return includedNodeTypes;
+    }
+
+    /** Returns the modifiable set of Maya node type names not to import, subtypes included. */
+    public Set<String> getExcludedNodeTypes() {
+        return excludedNodeTypes;
+    }
+
     @Override
     public Model3D load(URL url) throws IOException {
         return load(url, false);
@@ -67,6 +129,11 @@ public class MayaImporter implements Importer {
 
     private Model3D load(URL url, boolean asPolygonMesh) {
         Loader loader = new Loader();
+        loader.setDeferredDecoding(deferredDecoding);
+        loader.setAsynchronousSkinning(asynchronousSkinning);
+        MeshUpdatePolicy updatePolicy = new MeshUpdatePolicy();
+        loader.setUpdatePolicy(updatePolicy);
+        loader.setNodeFilter(reachableOnly, new HashSet<>(includedNodeTypes), new HashSet<>(excludedNodeTypes));
         loader.load(url, asPolygonMesh);
 
         // This root is not automatically added to the scene.
@@ -99,18 +166,30 @@ public class MayaImporter implements Importer {
         // meshParents.addAll(loader.meshParents.keySet());
         // this is not necessary at the moment
 
-        Timeline timeline = new Timeline();
+        AnimationClip clip = new AnimationClip(loader.channels);
 
-        // TODO: possibly add parallel option
-        loader.keyFrameMap.entrySet().stream()
-                .map(entry -> new KeyFrame(Duration.seconds(entry.getKey()), null, null, entry.getValue()))
-                .forEach(timeline.getKeyFrames()::add);
-
-        log("Loaded " + timeline.getKeyFrames().size() + " key frames.");
+        log("Loaded " + clip.getChannels().size() + " animation channels.");
 
         Model3D model = new Model3D() {
+            private Timeline timeline;
+
+            @Override
+            public Optional<AnimationClip> getAnimation() {
+                return Optional.of(clip);
+            }
+
+            @Override
+            public Optional<MeshUpdatePolicy> getUpdatePolicy() {
+                return Optional.of(updatePolicy);
+            }
+
+            // Only built on request, the clip doesn't need any KeyFrame
             @Override
             public Optional<Timeline> getTimeline() {
+                if (timeline == null) {
+                    timeline = clip.toTimeline();
+                    log("Loaded " + timeline.getKeyFrames().size() + " key frames.");
+                }
                 return Optional.of(timeline);
             }
         };
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2010, 2014, Oracle and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is available and licensed under the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of Oracle Corporation nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.bingbaihanji.javafxparse3dfile.importers.maya;
+
+import com.bingbaihanji.javafxparse3dfile.importers.SmoothingGroups;
+import com.bingbaihanji.javafxparse3dfile.importers.maya.values.*;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.PolygonMesh;
+import javafx.scene.shape.TriangleMesh;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts the geometry of a Maya mesh node into a TriangleMesh or a
+ * PolygonMesh. The result only depends on the attributes of that node, so
+ * distinct meshes can be converted concurrently.
+ */
+class MeshConverter {
+
+    private final MNode n;
+    private final boolean asPolygonMesh;
+    private final MFloat3Array mVerts;
+    private final MFloat3Array mPointTweaks;
+    private final int[] edgeData;
+    private final List<MData> uvSet;
+    private final int uvChannel;
+
+    MeshConverter(MNode n, boolean asPolygonMesh) {
+        this.n = n;
+        this.asPolygonMesh = asPolygonMesh;
+        mVerts = (MFloat3Array) n.getAttr("vt");
+        mPointTweaks = (MFloat3Array) n.getAttr("pt");
+        MInt3Array mEdges = (MInt3Array) n.getAttr("ed");
+        edgeData = mEdges.get();
+        uvSet = ((MArray) n.getAttr("uvst")).get();
+        String currentUVSet = ((MString) n.getAttr("cuvs")).get();
+        int channel = 0;
+        for (int i = 0; i < uvSet.size(); i++) {
+            if (((MString) uvSet.get(i).getData("uvsn")).get().equals(currentUVSet)) {
+                channel = i;
+            }
+        }
+        uvChannel = channel;
+    }
+
+    /** Returns the converted TriangleMesh, or PolygonMesh when converting as polygon mesh. */
+    Object convert() {
+        MPolyFace mPolys = (MPolyFace) n.getAttr("fc");
+        if (mPolys.getFaces() == null) {
+            if (asPolygonMesh) {
+                return new PolygonMesh();
+            } else {
+                return new TriangleMesh();
+            }
+        }
+
+        MFloat3Array normals = (MFloat3Array) n.getAttr("n");
+        return buildMeshData(mPolys.getFaces(), normals);
+    }
+
+    private int edgeVert(int edgeNumber, boolean start) {
+        boolean reverse = (edgeNumber < 0);
+        if (reverse) {
+            edgeNumber = reverse(edgeNumber);
+            return edgeData[3 * edgeNumber + (start ? 1 : 0)];
+        } else {
+            return edgeData[3 * edgeNumber + (start ? 0 : 1)];
+        }
+    }
+
+    private int reverse(int edge) {
+        if (edge < 0) {
+            return -edge - 1;
+        }
+        return edge;
+    }
+
+    private int edgeStart(int edgeNumber) {
+        return edgeVert(edgeNumber, true);
+    }
+
+    private float[] getTexCoords(int uvChannel) {
+        if (uvSet == null || uvChannel < 0 || uvChannel >= uvSet.size()) {
+            return new float[] {0,0};
+        }
+        MCompound compound = (MCompound) uvSet.get(uvChannel);
+        MFloat2Array uvs = (MFloat2Array) compound.getFieldData("uvsp");
+        if (uvs == null || uvs.get() == null) {
+            return new float[] {0,0};
+        }
+
+        float[] texCoords = new float[uvs.getSize() * 2];
+        float[] uvsData = uvs.get();
+        for (int i = 0; i < uvs.getSize(); i++) {
+            //note the 1 - v
+            texCoords[i * 2] = uvsData[2 * i];
+            texCoords[i * 2 + 1] = 1 - uvsData[2 * i + 1];
+        }
+        return texCoords;
+    }
+
+
+    private Object buildMeshData(List<MPolyFace.FaceData> faces, MFloat3Array normals) {
+        // Setup vertexes
+        float[] points = mVerts.get().clone();
+        float[] tweaks = null;
+        if (mPointTweaks != null) {
+            tweaks = mPointTweaks.get();
+        }
+        if (tweaks != null) {
+            // Only whole tweaks apply
+            int tweaked = Math.min(points.length, tweaks.length - tweaks.length % 3);
+            for (int i = 0; i < tweaked; i++) {
+                points[i] += tweaks[i];
+            }
+        }
+
+        // copy UV as-is (if any)
+        float[] texCoords = getTexCoords(uvChannel);
+
+        // Sizes of the output are known up front
+        int faceCount = 0;
+        int triangleCount = 0;
+        int normalCount = 0;
+        for (int f = 0; f < faces.size(); f++) {
+            int[] faceEdges = faces.get(f).getFaceEdges();
+            if (faceEdges != null && faceEdges.length > 0) {
+                faceCount++;
+                triangleCount += Math.max(0, faceEdges.length - 2);
+                normalCount += faceEdges.length;
+            }
+        }
+        // we can only figure out faces' normal indices if the faces' normal indices have a one-to-one ordered correspondence with the normals
+        boolean hasFaceNormals = normalCount == normals.getSize();
+
+        if (asPolygonMesh) {
+            int[][] facesArray = new int[faceCount][];
+            int[][] faceNormals = hasFaceNormals ? new int[faceCount][] : null;
+            int polyIndex = 0;
+            int normalInd = 0;
+            for (int f = 0; f < faces.size(); f++) {
+                MPolyFace.FaceData faceData = faces.get(f);
+                int[] faceEdges = faceData.getFaceEdges();
+                int[][] uvData = faceData.getUVData();
+                int[] uvIndices = uvData == null ? null : uvData[uvChannel];
+                if (faceEdges != null && faceEdges.length > 0) {
+                    int[] polyFace = new int[faceEdges.length * 2];
+                    for (int i = 0; i < faceEdges.length; i++) {
+                        int vIndex = edgeStart(faceEdges[i]);
+                        int uvIndex = uvIndices == null ? 0 : uvIndices[i];
+                        polyFace[i*2] = vIndex;
+                        polyFace[i*2+1] = uvIndex;
+                    }
+                    if (faceNormals != null) {
+                        int[] faceNormal = new int[faceEdges.length];
+                        for (int e = 0; e < faceNormal.length; e++) {
+                            faceNormal[e] = normalInd++;
+                        }
+                        faceNormals[polyIndex] = faceNormal;
+                    }
+                    facesArray[polyIndex++] = polyFace;
+                }
+            }
+
+            int[] smGroups;
+            if (faceNormals != null) {
+                smGroups = SmoothingGroups.calcSmoothGroups(facesArray, faceNormals, normals.get());
+            } else {
+                smGroups = new int[facesArray.length];
+                Arrays.fill(smGroups, 1);
+            }
+
+            PolygonMesh mesh = new PolygonMesh();
+            mesh.getPoints().setAll(points);
+            mesh.getTexCoords().setAll(texCoords);
+            mesh.setFaces(facesArray);
+            mesh.getFaceSmoothingGroups().setAll(smGroups);
+            return mesh;
+        } else {
+            // Split the polygonal faces into triangle faces, written
+            // straight into the final face and normal index arrays
+            int[] fff = new int[triangleCount * 6];
+            int[] faceNormals = hasFaceNormals ? new int[triangleCount * 3] : null;
+            int ff = 0;
+            int nn = 0;
+            int nIndex = 0;
+
+            for (int f = 0; f < faces.size(); f++) {
+                MPolyFace.FaceData faceData = faces.get(f);
+                int[] faceEdges = faceData.getFaceEdges();
+                int[][] uvData = faceData.getUVData();
+                int[] uvIndices = uvData == null ? null : uvData[uvChannel];
+                if (faceEdges != null && faceEdges.length > 0) {
+
+                    // Generate triangle fan about the first vertex
+                    int vIndex0 = edgeStart(faceEdges[0]);
+                    int uvIndex0 = uvIndices == null ? 0 : uvIndices[0];
+                    int nIndex0 = nIndex++;
+
+                    int vIndex1 = edgeStart(faceEdges[1]);
+                    int uvIndex1 = uvIndices == null ? 0 : uvIndices[1];
+                    int nIndex1 = nIndex++;
+
+                    for (int i = 2; i < faceEdges.length; i++) {
+                        int vIndex2 = edgeStart(faceEdges[i]);
+                        int uvIndex2 = uvIndices == null ? 0 : uvIndices[i];
+                        int nIndex2 = nIndex++;
+
+                        fff[ff++] = vIndex0;
+                        fff[ff++] = uvIndex0;
+                        fff[ff++] = vIndex1;
+                        fff[ff++] = uvIndex1;
+                        fff[ff++] = vIndex2;
+                        fff[ff++] = uvIndex2;
+                        if (faceNormals != null) {
+                            faceNormals[nn++] = nIndex0;
+                            faceNormals[nn++] = nIndex1;
+                            faceNormals[nn++] = nIndex2;
+                        }
+
+                        vIndex1 = vIndex2;
+                        uvIndex1 = uvIndex2;
+                    }
+                }
+            }
+
+            TriangleMesh mesh = new TriangleMesh();
+            int[] smGroups;
+            if (faceNormals != null) {
+                smGroups = SmoothingGroups.calcSmoothGroups(mesh, fff, faceNormals, normals.get());
+            } else {
+                smGroups = new int[fff.length/6];
+                Arrays.fill(smGroups, 1);
+            }
+
+            mesh.getPoints().setAll(points);
+            mesh.getTexCoords().setAll(texCoords);
+            mesh.getFaces().setAll(fff);
+            mesh.getFaceSmoothingGroups().setAll(smGroups);
+            return mesh;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2010, 2014, Oracle and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is available and licensed under the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of Oracle Corporation nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.bingbaihanji.javafxparse3dfile.importers.maya.parser;
+
+import com.bingbaihanji.javafxparse3dfile.importers.maya.MNode;
+import com.bingbaihanji.javafxparse3dfile.importers.maya.MayaImporter;
+import com.bingbaihanji.javafxparse3dfile.importers.maya.values.MData;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A setAttr command whose value hasn't been decoded yet. Only the attribute
+ * path and the range of the value tokens in the source text are kept; the
+ * tokens are parsed into the attribute's MData when it is first accessed.
+ */
+public class DeferredSetAttr {
+
+    private final String source;
+    private final String target;
+    private final int size;
+    private final int start;
+    private final int end;
+
+    DeferredSetAttr(String source, String target, int size, int start, int end) {
+        this.source = source;
+        this.target = target;
+        this.size = size;
+        this.start = start;
+        this.end = end;
+    }
+
+    /** Returns the number of source characters of the value. */
+    public int length() {
+        return end - start;
+    }
+
+    /** Decodes the value into the target attribute of the given node. */
+    public void apply(MNode node) {
+        MData data = node.getAttr(target);
+        if (data == null) {
+            return;
+        }
+        if (size > 0) {
+            data.setSize(size);
+        }
+        try {
+            data.parse(tokens());
+        } catch (Exception e) {
+            Logger.getLogger(MayaImporter.class.getName()).log(Level.SEVERE, null, e);
+        }
+    }
+
+    // Re-tokenizes the value line by line, the same way MParser does
+    private Iterator<String> tokens() {
+        return new Iterator<String>() {
+            private int lineStart = start;
+            private MParser.Tokenizer tokenizer;
+            private String next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String tok = next;
+                next = advance();
+                return tok;
+            }
+
+            private String advance() {
+                while (true) {
+                    if (tokenizer != null && tokenizer.hasMoreTokens()) {
+                        String tok = tokenizer.nextToken();
+                        if (!tok.startsWith("//")) {
+                            return tok;
+                        }
+                        // Comment until end of line
+                        tokenizer = null;
+                    }
+                    if (lineStart >= end) {
+                        return null;
+                    }
+                    int lineEnd = lineStart;
+                    while (lineEnd < end && source.charAt(lineEnd) != '\n' && source.charAt(lineEnd) != '\r') {
+                        ++lineEnd;
+                    }
+                    tokenizer = new MParser.Tokenizer(source, lineStart, lineEnd);
+                    lineStart = lineEnd + 1;
+                }
+            }
+        };
+    }
+}
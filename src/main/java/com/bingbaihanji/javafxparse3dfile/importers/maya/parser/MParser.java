@@ -31,6 +31,7 @@
  */
 package com.bingbaihanji.javafxparse3dfile.importers.maya.parser;
 
+import com.bingbaihanji.javafxparse3dfile.importers.maya.MAttribute;
 import com.bingbaihanji.javafxparse3dfile.importers.maya.MEnv;
 import com.bingbaihanji.javafxparse3dfile.importers.maya.MNode;
 import com.bingbaihanji.javafxparse3dfile.importers.maya.MPath;
@@ -44,6 +45,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -56,8 +58,21 @@ public class MParser {
     private boolean inPlaybackScriptNode = false;
     private final Set<String> refs = new HashSet<>();
 
+    // Deferred mode: setAttr values are not decoded while parsing, only the
+    // character range of their tokens in the source text is recorded against
+    // the node, see DeferredSetAttr
+    private final boolean deferred;
+    private String source;
+    private int[] tokenStarts = new int[64];
+    private int[] tokenEnds = new int[64];
+
     public MParser(MEnv env) {
+        this(env, false);
+    }
+
+    public MParser(MEnv env, boolean deferred) {
         this.env = env;
+        this.deferred = deferred;
     }
 
     public void parse(URL url) throws IOException {
@@ -74,6 +89,10 @@ public class MParser {
     private int lineNo;
 
     public void parse(InputStream inputStream) throws IOException {
+        if (deferred) {
+            parse(new String(inputStream.readAllBytes(), Charset.defaultCharset()));
+            return;
+        }
         BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
         String line;
         lineNo = 0;
@@ -104,19 +123,93 @@ public class MParser {
         }
     }
 
+    // Same as above, but keeps the whole text and the offsets of every token
+    // of the current command so that setAttr values can be deferred
+    private void parse(String text) {
+        source = text;
+        lineNo = 0;
+        List<String> command = new ArrayList<>();
+        int length = text.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+                ++lineEnd;
+            }
+            ++lineNo;
+            Tokenizer tokenizer = new Tokenizer(text, lineStart, lineEnd);
+            while (tokenizer.hasMoreTokens()) {
+                String tok = tokenizer.nextToken();
+                if (tok.startsWith("//")) {
+                    // Comment until end of line
+                    break;
+                }
+                if (tok.endsWith(";")) {
+                    // End of current command; execute it
+                    String tmp = tok.substring(0, tok.length() - 1);
+                    if (tmp.length() > 0) {
+                        int end = tokenizer.getTokenEnd() - 1;
+                        // A quoted token ending with ';' can't be re-tokenized from its range
+                        addToken(command, tmp, tokenizer.getTokenStart(), text.charAt(end) == ';' ? end : -1);
+                    }
+                    if (command.size() > 0) {
+                        execute(command);
+                        command.clear();
+                    }
+                } else {
+                    addToken(command, tok, tokenizer.getTokenStart(), tokenizer.getTokenEnd());
+                }
+            }
+            if (lineEnd < length - 1 && text.charAt(lineEnd) == '\r' && text.charAt(lineEnd + 1) == '\n') {
+                ++lineEnd;
+            }
+            lineStart = lineEnd + 1;
+        }
+        source = null;
+    }
+
+    private void addToken(List<String> command, String tok, int start, int end) {
+        int index = command.size();
+        if (index == tokenStarts.length) {
+            tokenStarts = Arrays.copyOf(tokenStarts, index * 2);
+            tokenEnds = Arrays.copyOf(tokenEnds, index * 2);
+        }
+        tokenStarts[index] = start;
+        tokenEnds[index] = end;
+        command.add(tok);
+    }
+
     // Maya-specific tokenizer; handles quoted strings with spaces and strips quotes from them
     // Does not properly unescape contents of strings yet
-    class Tokenizer {
+    static class Tokenizer {
         private final String line;
+        private final int end;
         private int pos;
+        private int tokenStart;
         private boolean escaping = false;
 
         Tokenizer(String line) {
-            this.line = line;
+            this(line, 0, line.length());
+        }
+
+        Tokenizer(String text, int start, int end) {
+            this.line = text;
+            this.pos = start;
+            this.end = end;
+        }
+
+        // Offset in the text of the first character of the last token, including its opening quote
+        int getTokenStart() {
+            return tokenStart;
+        }
+
+        // Offset in the text just past the last token, including its closing quote
+        int getTokenEnd() {
+            return pos;
         }
 
         public boolean hasMoreTokens() {
-            while (pos < line.length()) {
+            while (pos < end) {
                 if (Character.isWhitespace(line.charAt(pos))) {
                     ++pos;
                 } else {
@@ -128,17 +221,18 @@ public class MParser {
 
         public String nextToken() {
             // Skip leading whitespace
-            while (pos < line.length() &&
+            while (pos < end &&
                     Character.isWhitespace(line.charAt(pos))) {
                 ++pos;
             }
 
+            tokenStart = pos;
             int startPos = pos;
             boolean firstChar = true;
             boolean insideString = false;
 
             while (true) {
-                if (pos == line.length()) {
+                if (pos == end) {
                     if ((pos - startPos) == 0) {
                         return null;
                     } else {
@@ -412,7 +506,7 @@ public class MParser {
         if (fileName != null && !refs.contains(fileName)) {
             refs.add(fileName);
             try {
-                new MParser(env).parse(new URL(inputSource, fileName));
+                new MParser(env, deferred).parse(new URL(inputSource, fileName));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -467,6 +561,9 @@ public class MParser {
         List<String> value = new ArrayList<>();
         @SuppressWarnings("UnusedDeclaration") String type = null;
         int size = -1;
+        int firstValue = -1;
+        int lastValue = -1;
+        boolean contiguous = true;
         for (int i = 0; i < curArgs.size(); i++) {
             String arg = curArgs.get(i);
             if (arg.equals("-s") || arg.equals("-size")) {
@@ -488,6 +585,12 @@ public class MParser {
                 target = arg;
             } else {
                 value.add(arg);
+                if (firstValue < 0) {
+                    firstValue = i;
+                } else if (i != lastValue + 1) {
+                    contiguous = false;
+                }
+                lastValue = i;
             }
         }
         if (inPlaybackScriptNode) {
@@ -537,6 +640,16 @@ public class MParser {
             return;
         }
 
+        if (deferred && contiguous && !value.isEmpty() && target.startsWith(".")) {
+            // curArgs doesn't contain the command name, token offsets do
+            int start = tokenStarts[firstValue + 1];
+            int end = tokenEnds[lastValue + 1];
+            String attr = end < 0 ? null : topLevelAttribute(target.substring(1));
+            if (attr != null) {
+                selectedNode.defer(attr, new DeferredSetAttr(source, target.substring(1), size, start, end));
+                return;
+            }
+        }
 
         MData data = selectedNode.getAttr(target.substring(1));
         if (data == null) {
@@ -558,4 +671,33 @@ public class MParser {
             Logger.getLogger(MayaImporter.class.getName()).log(Level.SEVERE, null, e);
         }
     }
+
+    // Short name of the attribute of the selected node the path starts at,
+    // following aliases the same way MPath does, or null if there is none
+    private String topLevelAttribute(String path) {
+        String name = firstComponent(path);
+        for (int i = 0; i < 8; i++) {
+            String canonical = selectedNode.getCanonicalName(name);
+            if (canonical.equals(name)) {
+                MAttribute attribute = selectedNode.getNodeType().getAttribute(name);
+                return attribute == null ? null : attribute.getShortName();
+            }
+            name = firstComponent(canonical);
+        }
+        return null;
+    }
+
+    private static String firstComponent(String path) {
+        int start = 0;
+        while (start < path.length() && path.charAt(start) == '.') {
+            ++start;
+        }
+        for (int i = start; i < path.length(); i++) {
+            char ch = path.charAt(i);
+            if (ch == '.' || ch == '[') {
+                return path.substring(start, i);
+            }
+        }
+        return path.substring(start);
+    }
 }
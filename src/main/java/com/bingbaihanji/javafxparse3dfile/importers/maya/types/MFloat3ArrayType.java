@@ -44,6 +44,10 @@ public class MFloat3ArrayType extends MDataType {
         super(env, NAME);
     }
 
+    protected MFloat3ArrayType(MEnv env, String name) {
+        super(env, name);
+    }
+
     @Override
     public MData createData() {
         return new MFloat3ArrayImpl(this);
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2010, 2014, Oracle and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is available and licensed under the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of Oracle Corporation nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon;
+
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+
+/**
+ * Blend shape deformer: adds weighted morph targets to the points of a base
+ * mesh and writes the result into a target mesh. Each target is stored sparsely,
+ * as the indices of the points it moves and their deltas, and targets whose
+ * weight is 0 cost nothing. When the target mesh is a {@link SkinningMesh} the
+ * result becomes its binding pose, so blending happens before skinning.
+ */
+public class BlendShape {
+    private final PolygonMesh targetMesh;
+    private final float[] basePoints; // nPoints*3
+    private final int[][] targetIndices; // per target, the indices of the points it moves
+    private final float[][] targetDeltas; // per target, x y z deltas matching targetIndices
+    private final DoubleProperty[] weights;
+    private final double[] weightValues; // weights as read by the last prepareUpdate
+    private final float[] blendedPoints; // nPoints*3, reused output buffer
+    private final int[] targetFirstPoints; // per target, the lowest index in targetIndices
+    private final int[] targetEndPoints; // per target, 1 + the highest index in targetIndices
+    private final double[] blendedWeights; // weights the output buffer was blended with
+    private boolean blended;
+    private int changedFrom, changedTo; // points changed by the last computeUpdate
+    private boolean weightsDirty = true;
+
+    /**
+     * BlendShape constructor
+     *
+     * @param targetMesh The mesh whose points, or binding points for a {@link SkinningMesh}, receive the result
+     * @param basePoints The points the targets are added to, as many as targetMesh has
+     * @param targetIndices For every target, the indices of the points it moves
+     * @param targetDeltas For every target, the x y z offsets of the points in @targetIndices at weight 1
+     * @param initialWeights The initial weight of every target
+     */
+    public BlendShape(PolygonMesh targetMesh, float[] basePoints, int[][] targetIndices, float[][] targetDeltas, float[] initialWeights) {
+        this.targetMesh = targetMesh;
+        this.basePoints = basePoints;
+        this.targetIndices = targetIndices;
+        this.targetDeltas = targetDeltas;
+        weights = new DoubleProperty[targetIndices.length];
+        weightValues = new double[targetIndices.length];
+        for (int t = 0; t < weights.length; t++) {
+            weights[t] = new SimpleDoubleProperty(this, "w[" + t + "]", t < initialWeights.length ? initialWeights[t] : 0);
+            weights[t].addListener(observable -> weightsDirty = true);
+        }
+        blendedPoints = new float[basePoints.length];
+        blendedWeights = new double[targetIndices.length];
+        targetFirstPoints = new int[targetIndices.length];
+        targetEndPoints = new int[targetIndices.length];
+        for (int t = 0; t < targetIndices.length; t++) {
+            targetFirstPoints[t] = Integer.MAX_VALUE;
+            for (int i : targetIndices[t]) {
+                targetFirstPoints[t] = Math.min(targetFirstPoints[t], i);
+                targetEndPoints[t] = Math.max(targetEndPoints[t], i + 1);
+            }
+        }
+    }
+
+    public PolygonMesh getTargetMesh() {
+        return targetMesh;
+    }
+
+    public int getTargetCount() {
+        return weights.length;
+    }
+
+    /**
+     * The weight of a target, 0 leaving the base mesh unchanged and 1 applying the target fully.
+     */
+    public DoubleProperty weightProperty(int target) {
+        return weights[target];
+    }
+
+    public void update() {
+        if (prepareUpdate()) {
+            computeUpdate();
+            applyUpdate();
+        }
+    }
+
+    public boolean isDirty() {
+        return weightsDirty;
+    }
+
+    // Reads the weights, must be called on the FX thread. Returns whether computeUpdate and applyUpdate have to follow
+    boolean prepareUpdate() {
+        if (!weightsDirty) {
+            return false;
+        }
+        for (int t = 0; t < weights.length; t++) {
+            weightValues[t] = weights[t].get();
+        }
+        weightsDirty = false;
+        return true;
+    }
+
+    // Blends the targets into the output buffer, may be called on any thread. Only the points
+    // of targets whose weight is or was non-zero are recomputed
+    void computeUpdate() {
+        changedFrom = blended ? Integer.MAX_VALUE : 0;
+        changedTo = blended ? 0 : basePoints.length / 3;
+        for (int t = 0; t < targetIndices.length; t++) {
+            if (weightValues[t] != 0 || blendedWeights[t] != 0) {
+                changedFrom = Math.min(changedFrom, targetFirstPoints[t]);
+                changedTo = Math.max(changedTo, targetEndPoints[t]);
+            }
+        }
+        System.arraycopy(weightValues, 0, blendedWeights, 0, weightValues.length);
+        blended = true;
+        if (changedFrom >= changedTo) {
+            return;
+        }
+        System.arraycopy(basePoints, 3 * changedFrom, blendedPoints, 3 * changedFrom, 3 * (changedTo - changedFrom));
+        for (int t = 0; t < targetIndices.length; t++) {
+            float w = (float) weightValues[t];
+            if (w == 0) {
+                continue;
+            }
+            int[] indices = targetIndices[t];
+            float[] deltas = targetDeltas[t];
+            for (int k = 0; k < indices.length; k++) {
+                int i = 3 * indices[k];
+                blendedPoints[i]   += w * deltas[3*k];
+                blendedPoints[i+1] += w * deltas[3*k+1];
+                blendedPoints[i+2] += w * deltas[3*k+2];
+            }
+        }
+    }
+
+    // Copies the output buffer into the target mesh, must be called on the FX thread.
+    // A plain mesh only receives the changed points, so its views upload only those
+    void applyUpdate() {
+        if (targetMesh instanceof SkinningMesh) {
+            ((SkinningMesh) targetMesh).setBindPoints(blendedPoints);
+        } else if (changedFrom < changedTo) {
+            targetMesh.getPoints().set(3 * changedFrom, blendedPoints, 3 * changedFrom, 3 * (changedTo - changedFrom));
+        }
+    }
+}
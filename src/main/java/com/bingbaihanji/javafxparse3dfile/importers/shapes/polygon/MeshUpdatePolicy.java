@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010, 2014, Oracle and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is available and licensed under the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of Oracle Corporation nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon;
+
+import javafx.geometry.Bounds;
+import javafx.geometry.Point3D;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+
+import java.util.List;
+
+/**
+ * Decides how often {@link MeshUpdateScheduler} updates a mesh depending on how
+ * its view is seen. Hidden views are not updated at all; views outside the
+ * window and views whose projected bounds are smaller than
+ * {@link #getDistantSize()} pixels are updated every
+ * {@link #getDistantInterval()} pulses. As meshes stay dirty while they are
+ * skipped, a view that becomes visible again is brought up to date on the next
+ * pulse.
+ */
+public class MeshUpdatePolicy {
+    private boolean skipHidden = true;
+    private boolean skipCulled = true;
+    private double distantSize = 32;
+    private int distantInterval = 4;
+
+    /** Whether views that are invisible, or have an invisible ancestor, are not updated. */
+    public boolean isSkipHidden() {
+        return skipHidden;
+    }
+
+    public void setSkipHidden(boolean skipHidden) {
+        this.skipHidden = skipHidden;
+    }
+
+    /**
+     * Whether views whose projected bounds lie outside the window are only updated
+     * every {@link #getDistantInterval()} pulses. The bounds are those of the last
+     * update, so culled views keep being updated now and then for a mesh moving
+     * into view by deformation alone to be noticed, and a skinned mesh is not
+     * culled while one of its joints is inside the window.
+     */
+    public boolean isSkipCulled() {
+        return skipCulled;
+    }
+
+    public void setSkipCulled(boolean skipCulled) {
+        this.skipCulled = skipCulled;
+    }
+
+    /** The projected size, in pixels, under which a view counts as distant; 0 disables throttling. */
+    public double getDistantSize() {
+        return distantSize;
+    }
+
+    public void setDistantSize(double distantSize) {
+        this.distantSize = distantSize;
+    }
+
+    /** Every how many pulses a distant view is updated. */
+    public int getDistantInterval() {
+        return distantInterval;
+    }
+
+    public void setDistantInterval(int distantInterval) {
+        this.distantInterval = Math.max(1, distantInterval);
+    }
+
+    /**
+     * Returns every how many pulses the mesh of the view should be updated, or 0
+     * if it should not be updated at all. The joints deforming the mesh, if any,
+     * keep it from being culled.
+     */
+    int getUpdateInterval(Node view, List<? extends Node> joints) {
+        Scene scene = view.getScene();
+        if (scene == null) {
+            return 0;
+        }
+        if (skipHidden) {
+            for (Node node = view; node != null; node = node.getParent()) {
+                if (!node.isVisible()) {
+                    return 0;
+                }
+            }
+        }
+        if (!skipCulled && distantSize <= 0) {
+            return 1;
+        }
+        Bounds bounds = view.localToScene(view.getBoundsInLocal(), true);
+        if (bounds == null || Double.isNaN(bounds.getMinX()) || Double.isNaN(bounds.getMinY())
+                || Double.isInfinite(bounds.getWidth()) || Double.isInfinite(bounds.getHeight())) {
+            // degenerate projection, e.g. across the camera plane
+            return 1;
+        }
+        if (skipCulled && scene.getWidth() > 0 && scene.getHeight() > 0
+                && !bounds.intersects(0, 0, scene.getWidth(), scene.getHeight())
+                && !isAnyInWindow(joints, scene)) {
+            return distantInterval;
+        }
+        if (Math.max(bounds.getWidth(), bounds.getHeight()) < distantSize) {
+            return distantInterval;
+        }
+        return 1;
+    }
+
+    private static boolean isAnyInWindow(List<? extends Node> nodes, Scene scene) {
+        for (Node node : nodes) {
+            Point3D origin = node.localToScene(Point3D.ZERO, true);
+            if (origin.getX() >= 0 && origin.getX() <= scene.getWidth()
+                    && origin.getY() >= 0 && origin.getY() <= scene.getHeight()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2010, 2014, Oracle and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is available and licensed under the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of Oracle Corporation nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.Node;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Updates all registered skinning and subdivision meshes from a single
+ * AnimationTimer. On every pulse the dirty blend shapes are updated first, then
+ * the dirty skinning meshes, which may skin the points just blended, and last
+ * the dirty subdivision meshes, which usually subdivide the points just
+ * skinned. Within each group the joint transforms are read and the results
+ * applied on the FX thread, while the points themselves are computed in
+ * parallel. When a frame budget is set, meshes that do not fit in it, judging
+ * by their average update time, are left dirty for the next pulse, the least
+ * recently updated going first. Meshes registered with their view are further
+ * skipped or throttled by the view's {@link MeshUpdatePolicy}.
+ *
+ * Views shown in a scene don't refresh their triangle mesh on every change of
+ * their mesh either: the refresh is deferred to the end of the pulse, so any
+ * number of changes in a frame, including those made by the updates above,
+ * costs one refresh.
+ */
+public final class MeshUpdateScheduler {
+
+    private static MeshUpdateScheduler defaultScheduler;
+
+    /**
+     * Returns the scheduler shared by all scenes.
+     */
+    public static MeshUpdateScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new MeshUpdateScheduler();
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Update times of a registered mesh, covering the reading of its inputs,
+     * the computation and the copy of the results into the mesh.
+     */
+    public static final class Metrics {
+        private long lastNanos;
+        private long totalNanos;
+        private int updateCount;
+        private int deferredCount;
+
+        private void record(long nanos) {
+            lastNanos = nanos;
+            totalNanos += nanos;
+            updateCount++;
+        }
+
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        public long getAverageNanos() {
+            return updateCount == 0 ? 0 : totalNanos / updateCount;
+        }
+
+        public int getUpdateCount() {
+            return updateCount;
+        }
+
+        /** Number of pulses in which the mesh was dirty but left for later to stay within the frame budget. */
+        public int getDeferredCount() {
+            return deferredCount;
+        }
+    }
+
+    private static final class Entry {
+        final Metrics metrics = new Metrics();
+        final PolygonMeshView view;
+        final List<? extends Node> joints; // joints deforming the mesh, for culling
+        long lastUpdatePulse;
+        long nanos;
+        boolean skipped;
+
+        Entry(PolygonMeshView view) {
+            this(view, Collections.emptyList());
+        }
+
+        Entry(PolygonMeshView view, List<? extends Node> joints) {
+            this.view = view;
+            this.joints = joints;
+        }
+    }
+
+    private final Map<BlendShape, Entry> blendShapes = new LinkedHashMap<>();
+    private final Map<SkinningMesh, Entry> skinningMeshes = new LinkedHashMap<>();
+    private final Map<SubdivisionMesh, Entry> subdivisionMeshes = new LinkedHashMap<>();
+    private final List<Runnable> pulseTasks = new ArrayList<>();
+    private final Set<PolygonMeshView> pendingViews = new LinkedHashSet<>();
+    private long coalescedUpdateCount;
+    private long frameBudgetNanos = Long.MAX_VALUE;
+    private long pulse;
+    private boolean running;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            pulse();
+        }
+    };
+
+    /**
+     * Registers a blend shape whose target mesh is shown by the given view, whose
+     * update policy decides whether the blend shape is updated on a pulse.
+     */
+    public void register(BlendShape blendShape, PolygonMeshView view) {
+        blendShapes.putIfAbsent(blendShape, new Entry(view));
+        updateTimer();
+    }
+
+    public void unregister(BlendShape blendShape) {
+        blendShapes.remove(blendShape);
+        updateTimer();
+    }
+
+    public void register(SkinningMesh mesh) {
+        register(mesh, null);
+    }
+
+    /**
+     * Registers a mesh shown by the given view, whose update policy decides
+     * whether the mesh is updated on a pulse.
+     */
+    public void register(SkinningMesh mesh, PolygonMeshView view) {
+        skinningMeshes.putIfAbsent(mesh, new Entry(view, mesh.getJoints()));
+        updateTimer();
+    }
+
+    public void unregister(SkinningMesh mesh) {
+        skinningMeshes.remove(mesh);
+        updateTimer();
+    }
+
+    public void register(SubdivisionMesh mesh) {
+        register(mesh, null);
+    }
+
+    /**
+     * Registers a mesh shown by the given view, whose update policy decides
+     * whether the mesh is updated on a pulse.
+     */
+    public void register(SubdivisionMesh mesh, PolygonMeshView view) {
+        subdivisionMeshes.putIfAbsent(mesh, new Entry(view));
+        updateTimer();
+    }
+
+    public void unregister(SubdivisionMesh mesh) {
+        subdivisionMeshes.remove(mesh);
+        updateTimer();
+    }
+
+    public boolean isRegistered(SubdivisionMesh mesh) {
+        return subdivisionMeshes.containsKey(mesh);
+    }
+
+    /**
+     * Adds a task run at the start of every pulse, before the meshes are updated.
+     */
+    public void addPulseTask(Runnable task) {
+        pulseTasks.add(task);
+        updateTimer();
+    }
+
+    public void removePulseTask(Runnable task) {
+        pulseTasks.remove(task);
+        updateTimer();
+    }
+
+    /**
+     * Sets the time per pulse that mesh updates should fit in; at least one dirty
+     * mesh of each kind is updated on every pulse regardless.
+     * {@link Duration#INDEFINITE}, the default, updates every dirty mesh.
+     */
+    public void setFrameBudget(Duration budget) {
+        frameBudgetNanos = budget.isIndefinite() ? Long.MAX_VALUE : (long) (budget.toMillis() * 1_000_000);
+    }
+
+    public Duration getFrameBudget() {
+        return frameBudgetNanos == Long.MAX_VALUE ? Duration.INDEFINITE : Duration.millis(frameBudgetNanos / 1_000_000d);
+    }
+
+    /** Returns the update times of a registered blend shape, or null. */
+    public Metrics getMetrics(BlendShape blendShape) {
+        Entry entry = blendShapes.get(blendShape);
+        return entry == null ? null : entry.metrics;
+    }
+
+    /** Returns the update times of a registered mesh, or null. */
+    public Metrics getMetrics(SkinningMesh mesh) {
+        Entry entry = skinningMeshes.get(mesh);
+        return entry == null ? null : entry.metrics;
+    }
+
+    /** Returns the update times of a registered mesh, or null. */
+    public Metrics getMetrics(SubdivisionMesh mesh) {
+        Entry entry = subdivisionMeshes.get(mesh);
+        return entry == null ? null : entry.metrics;
+    }
+
+    /**
+     * Number of mesh changes that didn't cost an update of their own, because they
+     * were merged into an update already pending for the same pulse.
+     */
+    public long getCoalescedUpdateCount() {
+        return coalescedUpdateCount;
+    }
+
+    // Defers the refresh of the view's triangle mesh to the end of the next pulse
+    void requestViewUpdate(PolygonMeshView view) {
+        if (!pendingViews.add(view)) {
+            coalescedUpdateCount++;
+        }
+        updateTimer();
+    }
+
+    // Counts a change merged into an update that was already pending
+    void countCoalescedUpdate() {
+        coalescedUpdateCount++;
+    }
+
+    private void updateTimer() {
+        boolean idle = blendShapes.isEmpty() && skinningMeshes.isEmpty() && subdivisionMeshes.isEmpty() && pulseTasks.isEmpty()
+                && pendingViews.isEmpty();
+        if (idle && running) {
+            timer.stop();
+            running = false;
+        } else if (!idle && !running) {
+            timer.start();
+            running = true;
+        }
+    }
+
+    private void pulse() {
+        pulse++;
+        long start = System.nanoTime();
+        for (Runnable task : new ArrayList<>(pulseTasks)) {
+            task.run();
+        }
+        update(blendShapes, BlendShape::isDirty, BlendShape::prepareUpdate,
+                BlendShape::computeUpdate, BlendShape::applyUpdate, start);
+        update(skinningMeshes, SkinningMesh::isDirty, SkinningMesh::prepareUpdate,
+                SkinningMesh::computeUpdate, SkinningMesh::applyUpdate, start);
+        update(subdivisionMeshes, SubdivisionMesh::isDirty, SubdivisionMesh::isDirty,
+                SubdivisionMesh::computeUpdate, SubdivisionMesh::applyUpdate, start);
+        if (!pendingViews.isEmpty()) {
+            List<PolygonMeshView> views = new ArrayList<>(pendingViews);
+            pendingViews.clear();
+            for (PolygonMeshView view : views) {
+                view.updateMesh();
+            }
+            updateTimer();
+        }
+    }
+
+    private <M> void update(Map<M, Entry> meshes, Predicate<M> isDirty, Predicate<M> prepare,
+            Consumer<M> compute, Consumer<M> apply, long start) {
+        List<M> dirty = new ArrayList<>();
+        for (Map.Entry<M, Entry> e : meshes.entrySet()) {
+            Entry entry = e.getValue();
+            if (!isDirty.test(e.getKey())) {
+                continue;
+            }
+            MeshUpdatePolicy policy = entry.view == null ? null : entry.view.getUpdatePolicy();
+            int interval = policy == null ? 1 : policy.getUpdateInterval(entry.view, entry.joints);
+            if (interval == 0) {
+                entry.skipped = true;
+            } else if (entry.skipped || pulse - entry.lastUpdatePulse >= interval) {
+                dirty.add(e.getKey());
+            }
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        dirty.sort((m1, m2) -> Long.compare(meshes.get(m1).lastUpdatePulse, meshes.get(m2).lastUpdatePulse));
+
+        // Pick the meshes expected to fit in what is left of the budget
+        List<M> selected = new ArrayList<>(dirty.size());
+        long remaining = frameBudgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+                : (frameBudgetNanos - (System.nanoTime() - start)) * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        for (M mesh : dirty) {
+            Entry entry = meshes.get(mesh);
+            long expected = entry.metrics.getAverageNanos();
+            // meshes that just became visible are brought up to date regardless of the budget
+            if (!selected.isEmpty() && expected > remaining && !entry.skipped) {
+                entry.metrics.deferredCount++;
+                continue;
+            }
+            selected.add(mesh);
+            remaining -= expected;
+        }
+
+        List<M> computed = new ArrayList<>(selected.size());
+        for (M mesh : selected) {
+            Entry entry = meshes.get(mesh);
+            long t = System.nanoTime();
+            if (prepare.test(mesh)) {
+                computed.add(mesh);
+            }
+            entry.nanos = System.nanoTime() - t;
+        }
+        computed.parallelStream().forEach(mesh -> {
+            Entry entry = meshes.get(mesh);
+            long t = System.nanoTime();
+            compute.accept(mesh);
+            entry.nanos += System.nanoTime() - t;
+        });
+        for (M mesh : computed) {
+            Entry entry = meshes.get(mesh);
+            long t = System.nanoTime();
+            apply.accept(mesh);
+            entry.nanos += System.nanoTime() - t;
+        }
+        for (M mesh : selected) {
+            Entry entry = meshes.get(mesh);
+            entry.metrics.record(entry.nanos);
+            entry.lastUpdatePulse = pulse;
+            entry.skipped = false;
+        }
+    }
+}
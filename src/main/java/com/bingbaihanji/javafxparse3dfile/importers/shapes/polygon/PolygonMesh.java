@@ -75,6 +75,7 @@ public class PolygonMesh {
 
     public void setFaces(int[][] faces) {
         this.faces = faces;
+        numEdgesInFaces = -1;
     }
 
     public ObservableIntegerArray getFaceSmoothingGroups() {
@@ -31,6 +31,7 @@
  */
 package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon;
 
+import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -46,12 +47,25 @@ import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMe
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh.MapBorderMode;
 
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A MeshView node for Polygon Meshes
  */
 public class PolygonMeshView extends Parent {
     private static final boolean DEBUG = false;
+
+    /**
+     * Default memory budget for the subdivision levels kept by a view, in bytes.
+     */
+    public static final long DEFAULT_SUBDIVISION_CACHE_BUDGET = 64L * 1024 * 1024;
+
+    // Subdivision levels with more faces than this are built on a background thread
+    private static final long ASYNC_SUBDIVISION_FACES = 16 * 1024;
+
     private final MeshView meshView = new MeshView();
 
     private TriangleMesh triangleMesh = new TriangleMesh();
@@ -59,20 +73,50 @@ public class PolygonMeshView extends Parent {
     // this is null if no subdivision is happening (i.e. subdivisionLevel = 0);
     private SubdivisionMesh subdivisionMesh;
 
-    private final ArrayChangeListener<ObservableFloatArray> meshPointsListener = (t, bln, i, i1) -> {
-        pointsDirty = true;
-        updateMesh();
+    // Triangle meshes of the recently shown subdivision levels, in access order
+    private final Map<Integer, CachedLevel> levelCache = new LinkedHashMap<>(4, 0.75f, true);
+    private long subdivisionCacheBudget = DEFAULT_SUBDIVISION_CACHE_BUDGET;
+    private int subdivisionRequest; // incremented on each level change, to drop outdated results
+    private boolean switchingLevel; // the subdivision mesh is being switched to another level
+
+    // wireframe geometry: the unique edges of the faces as pairs of point indices,
+    // each drawn as one sliver triangle ending on an extra point, and the points array
+    private int[] wireframeEdges;
+    private float[] wireframePoints;
+
+    // changed parts of the arrays, when they are not copied whole
+    private final DirtySpans dirtyPoints = new DirtySpans();
+    private final DirtySpans dirtyTexCoords = new DirtySpans();
+
+    private final ArrayChangeListener<ObservableFloatArray> meshPointsListener = (t, sizeChanged, from, to) -> {
+        if (sizeChanged) {
+            pointsDirty = pointsSizeDirty = true;
+        } else {
+            dirtyPoints.add(from, to);
+        }
+        requestUpdateMesh();
     };
-    private final ArrayChangeListener<ObservableFloatArray> meshTexCoordListener = (t, bln, i, i1) -> {
-        texCoordsDirty = true;
-        updateMesh();
+    private final ArrayChangeListener<ObservableFloatArray> meshTexCoordListener = (t, sizeChanged, from, to) -> {
+        if (sizeChanged) {
+            texCoordsDirty = texCoordsSizeDirty = true;
+        } else {
+            dirtyTexCoords.add(from, to);
+        }
+        requestUpdateMesh();
     };
 
+    // whole arrays to copy into the triangle mesh
     private boolean pointsDirty = true;
     private boolean pointsSizeDirty = true;
     private boolean texCoordsDirty = true;
+    private boolean texCoordsSizeDirty = true;
     private boolean facesDirty = true;
 
+    // faces the triangle mesh was built from: PolygonMesh.setFaces fires no
+    // notification, so replaced faces are detected when updating
+    private int[][] lastFaces;
+    private int lastNumEdgesInFaces;
+
     // =========================================================================
     // PROPERTIES
 
@@ -90,11 +134,12 @@ public class PolygonMeshView extends Parent {
             meshProperty.addListener((observable, oldValue, newValue) -> {
                 if (oldValue != null) {
                     oldValue.getPoints().removeListener(meshPointsListener);
-                    oldValue.getPoints().removeListener(meshTexCoordListener);
+                    oldValue.getTexCoords().removeListener(meshTexCoordListener);
                 }
 
                 meshProperty.set(newValue);
 
+                levelCache.clear();
                 pointsDirty = pointsSizeDirty = texCoordsDirty = facesDirty = true;
                 updateMesh();
 
@@ -120,6 +165,7 @@ public class PolygonMeshView extends Parent {
             drawMode = new SimpleObjectProperty<DrawMode>(PolygonMeshView.this, "drawMode", DrawMode.FILL) {
                 @Override protected void invalidated() {
                     meshView.setDrawMode(get());
+                    levelCache.clear();
                     pointsDirty = pointsSizeDirty = texCoordsDirty = facesDirty = true;
                     updateMesh();
                 }
@@ -159,6 +205,17 @@ public class PolygonMeshView extends Parent {
     public void setMaterial(Material material) { materialProperty.set(material); }
     public ObjectProperty<Material> materialProperty() { return materialProperty; }
 
+    /**
+     * Defines when {@link MeshUpdateScheduler} updates the animated meshes of this view.
+     * If null, they are updated on every pulse.
+     *
+     * @defaultValue null
+     */
+    private ObjectProperty<MeshUpdatePolicy> updatePolicyProperty = new SimpleObjectProperty<MeshUpdatePolicy>();
+    public MeshUpdatePolicy getUpdatePolicy() { return updatePolicyProperty.get(); }
+    public void setUpdatePolicy(MeshUpdatePolicy updatePolicy) { updatePolicyProperty.set(updatePolicy); }
+    public ObjectProperty<MeshUpdatePolicy> updatePolicyProperty() { return updatePolicyProperty; }
+
     /**
      * Number of iterations of Catmull Clark subdivision to apply to the mesh
      *
@@ -171,18 +228,52 @@ public class PolygonMeshView extends Parent {
         if (subdivisionLevelProperty == null) {
             subdivisionLevelProperty = new SimpleIntegerProperty(getSubdivisionLevel()) {
                 @Override protected void invalidated() {
+                    int level = getSubdivisionLevel();
+                    int request = ++subdivisionRequest;
                     // create SubdivisionMesh if subdivisionLevel is greater than 0
-                    if ((getSubdivisionLevel() > 0) && (subdivisionMesh == null)) {
-                        subdivisionMesh = new SubdivisionMesh(getMesh(), getSubdivisionLevel(), getBoundaryMode(), getMapBorderMode());
-                        subdivisionMesh.getOriginalMesh().getPoints().addListener((t, bln, i, i1) -> subdivisionMesh.update());
+                    if ((level > 0) && (subdivisionMesh == null)) {
+                        subdivisionMesh = new SubdivisionMesh(getMesh(), 0, getBoundaryMode(), getMapBorderMode());
+                        subdivisionMesh.getOriginalMesh().getPoints().addListener((t, bln, i, i1) -> {
+                            // registered meshes are brought up to date once per pulse by the scheduler
+                            if (!MeshUpdateScheduler.getDefault().isRegistered(subdivisionMesh)) {
+                                subdivisionMesh.update();
+                            }
+                        });
+                        subdivisionMesh.update();
                         setMesh(subdivisionMesh);
+                        if (getScene() != null) {
+                            MeshUpdateScheduler.getDefault().register(subdivisionMesh, PolygonMeshView.this);
+                        }
                     }
-                    if (subdivisionMesh != null) {
-                        subdivisionMesh.setSubdivisionLevel(getSubdivisionLevel());
-                        subdivisionMesh.update();
+                    if (subdivisionMesh == null) {
+                        pointsDirty = pointsSizeDirty = texCoordsDirty = facesDirty = true;
+                        updateMesh();
+                        return;
                     }
-                    pointsDirty = pointsSizeDirty = texCoordsDirty = facesDirty = true;
-                    updateMesh();
+                    // large levels are subdivided in the background while the current level stays displayed
+                    SubdivisionMesh.Levels levels = Platform.isFxApplicationThread() && !subdivisionMesh.isSubdivisionLevelBuilt(level)
+                            ? subdivisionMesh.getLevels() : null;
+                    if (levels != null && estimateFaces(levels, level) > ASYNC_SUBDIVISION_FACES) {
+                        SubdivisionMesh mesh = subdivisionMesh;
+                        CompletableFuture.supplyAsync(() -> mesh.subdivideLevels(levels, level))
+                                .handleAsync((built, error) -> {
+                                    if (mesh != subdivisionMesh) {
+                                        return null;
+                                    }
+                                    if (built != null) {
+                                        mesh.addLevels(built);
+                                    }
+                                    // on failure, the level is subdivided synchronously
+                                    if (request == subdivisionRequest) {
+                                        switchSubdivisionLevel(level);
+                                    } else {
+                                        trimLevelCache();
+                                    }
+                                    return null;
+                                }, Platform::runLater);
+                        return;
+                    }
+                    switchSubdivisionLevel(level);
                 }
             };
         }
@@ -229,6 +320,7 @@ public class PolygonMeshView extends Parent {
                         subdivisionMesh.setMapBorderMode(getMapBorderMode());
                         subdivisionMesh.update();
                     }
+                    levelCache.clear();
                     texCoordsDirty = true;
                     updateMesh();
                 }
@@ -237,12 +329,35 @@ public class PolygonMeshView extends Parent {
         return mapBorderMode;
     }
 
+    /**
+     * Memory budget for the subdivision levels this view keeps so that switching
+     * back to them is instant: their symbolic meshes and their triangle meshes.
+     * The current level is always kept.
+     *
+     * @defaultValue DEFAULT_SUBDIVISION_CACHE_BUDGET
+     */
+    public long getSubdivisionCacheBudget() { return subdivisionCacheBudget; }
+    public void setSubdivisionCacheBudget(long subdivisionCacheBudget) {
+        this.subdivisionCacheBudget = subdivisionCacheBudget;
+        trimLevelCache();
+    }
+
     // =========================================================================
     // CONSTRUCTORS
 
     public PolygonMeshView() {
         meshView.materialProperty().bind(materialProperty());
         getChildren().add(meshView);
+        sceneProperty().addListener((observable, oldValue, newValue) -> {
+            if (subdivisionMesh == null) {
+                return;
+            }
+            if (newValue == null) {
+                MeshUpdateScheduler.getDefault().unregister(subdivisionMesh);
+            } else {
+                MeshUpdateScheduler.getDefault().register(subdivisionMesh, this);
+            }
+        });
     }
 
     public PolygonMeshView(PolygonMesh mesh) {
@@ -253,7 +368,159 @@ public class PolygonMeshView extends Parent {
     // =========================================================================
     // PRIVATE METHODS
 
-    private void updateMesh() {
+    // Ranges of an array changed since the last update of the triangle mesh. Overlapping and
+    // adjacent ranges are merged; past a few ranges they are all merged into one
+    private static final class DirtySpans {
+        private static final int MAX_SPANS = 8;
+        private final int[] starts = new int[MAX_SPANS];
+        private final int[] ends = new int[MAX_SPANS];
+        private int count;
+
+        void add(int from, int to) {
+            if (from >= to) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                if (from <= ends[i] && to >= starts[i]) {
+                    from = Math.min(from, starts[i]);
+                    to = Math.max(to, ends[i]);
+                    count--;
+                    starts[i] = starts[count];
+                    ends[i] = ends[count];
+                    i = -1; // the merged range may now reach ranges already checked
+                }
+            }
+            if (count == MAX_SPANS) {
+                for (int i = 0; i < count; i++) {
+                    from = Math.min(from, starts[i]);
+                    to = Math.max(to, ends[i]);
+                }
+                count = 0;
+            }
+            starts[count] = from;
+            ends[count] = to;
+            count++;
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        void clear() {
+            count = 0;
+        }
+
+        void copy(ObservableFloatArray src, ObservableFloatArray dest) {
+            for (int i = 0; i < count; i++) {
+                dest.set(starts[i], src, starts[i], ends[i] - starts[i]);
+            }
+            count = 0;
+        }
+    }
+
+    private static class CachedLevel {
+        final TriangleMesh triangleMesh;
+        final int topologyVersion;
+
+        CachedLevel(TriangleMesh triangleMesh, int topologyVersion) {
+            this.triangleMesh = triangleMesh;
+            this.topologyVersion = topologyVersion;
+        }
+
+        long getMemory() {
+            return 4L * (triangleMesh.getPoints().size() + triangleMesh.getTexCoords().size()
+                    + triangleMesh.getFaces().size() + triangleMesh.getFaceSmoothingGroups().size());
+        }
+    }
+
+    private static long estimateFaces(SubdivisionMesh.Levels levels, int level) {
+        // every subdivision turns each face into one quad per edge, i.e. about 4 faces
+        long faces = levels.meshes.get(levels.meshes.size() - 1).getNumEdgesInFaces();
+        for (int i = levels.meshes.size(); i < level; i++) {
+            faces *= 4;
+        }
+        return faces;
+    }
+
+    // Shows the given level of the subdivision mesh, reusing its cached triangle mesh if any,
+    // and swaps the new triangle mesh in at once
+    private void switchSubdivisionLevel(int level) {
+        switchingLevel = true;
+        try {
+            subdivisionMesh.setSubdivisionLevel(level);
+            subdivisionMesh.update();
+        } finally {
+            switchingLevel = false;
+        }
+        pointsDirty = pointsSizeDirty = texCoordsDirty = facesDirty = true;
+        CachedLevel cached = getDrawMode() == DrawMode.FILL ? levelCache.get(level) : null;
+        if (cached != null && cached.topologyVersion == subdivisionMesh.getTopologyVersion()) {
+            // only the points may have changed since the level was last shown
+            triangleMesh = cached.triangleMesh;
+            pointsSizeDirty = texCoordsDirty = texCoordsSizeDirty = facesDirty = false;
+            lastFaces = subdivisionMesh.getFaces();
+            lastNumEdgesInFaces = subdivisionMesh.getNumEdgesInFaces();
+            dirtyTexCoords.clear();
+        }
+        updateMesh();
+        if (getDrawMode() == DrawMode.FILL) {
+            levelCache.put(level, new CachedLevel(triangleMesh, subdivisionMesh.getTopologyVersion()));
+        }
+        trimLevelCache();
+    }
+
+    // Drops the least recently shown levels until the cache fits its budget. Symbolic meshes
+    // above a dropped level are discarded too, as each one is built from the level below
+    private void trimLevelCache() {
+        if (subdivisionMesh == null) {
+            levelCache.clear();
+            return;
+        }
+        int current = subdivisionMesh.getSubdivisionLevel();
+        Iterator<Map.Entry<Integer, CachedLevel>> iterator = levelCache.entrySet().iterator();
+        while (getLevelCacheMemory() > subdivisionCacheBudget && iterator.hasNext()) {
+            int level = iterator.next().getKey();
+            if (level == current) {
+                continue;
+            }
+            iterator.remove();
+            if (level > current) {
+                subdivisionMesh.discardLevelsAbove(level - 1);
+                levelCache.keySet().removeIf(l -> l > level);
+                iterator = levelCache.entrySet().iterator();
+            }
+        }
+        if (getLevelCacheMemory() > subdivisionCacheBudget) {
+            subdivisionMesh.discardLevelsAbove(current);
+        }
+    }
+
+    private long getLevelCacheMemory() {
+        long memory = 0;
+        for (CachedLevel cached : levelCache.values()) {
+            memory += cached.getMemory();
+        }
+        for (int level = 1; subdivisionMesh.isSubdivisionLevelBuilt(level); level++) {
+            memory += subdivisionMesh.getLevelMemory(level);
+        }
+        return memory;
+    }
+
+    // Refreshes the triangle mesh after a change of the mesh: at the end of the pulse when
+    // shown in a scene, so that all the changes of a frame are merged, immediately otherwise
+    private void requestUpdateMesh() {
+        if (switchingLevel) {
+            return;
+        }
+        if (getScene() != null) {
+            MeshUpdateScheduler.getDefault().requestViewUpdate(this);
+        } else {
+            updateMesh();
+        }
+    }
+
+    // Brings the triangle mesh up to date, must be called on the FX thread
+    void updateMesh() {
         PolygonMesh pmesh = getMesh();
         if (pmesh == null || pmesh.getFaces() == null) {
             triangleMesh = new TriangleMesh();
@@ -261,6 +528,12 @@ public class PolygonMeshView extends Parent {
             return;
         }
 
+        if (pmesh.getFaces() != lastFaces || pmesh.getNumEdgesInFaces() != lastNumEdgesInFaces) {
+            facesDirty = true;
+            lastFaces = pmesh.getFaces();
+            lastNumEdgesInFaces = pmesh.getNumEdgesInFaces();
+        }
+
         final int pointElementSize = triangleMesh.getPointElementSize();
         final int faceElementSize = triangleMesh.getFaceElementSize();
         final boolean isWireframe = getDrawMode() == DrawMode.LINE;
@@ -272,69 +545,56 @@ public class PolygonMeshView extends Parent {
             // The current triangleMesh implementation gives buggy behavior when the size of faces are shrunken
             // Create a new TriangleMesh as a work around
             // [JIRA] (RT-31178)
-            if (texCoordsDirty || facesDirty || pointsSizeDirty) {
+            // texCoords are constant in wireframe mode
+            if (facesDirty || pointsSizeDirty) {
                 triangleMesh = new TriangleMesh();
                 pointsDirty = pointsSizeDirty = texCoordsDirty = facesDirty = true; // to fill in the new triangle mesh
             }
             if (facesDirty) {
                 facesDirty = false;
-                // create faces for each edge
-                int [] facesArray = new int [pmesh.getNumEdgesInFaces() * faceElementSize];
+                // create a sliver triangle for each edge, shared edges are drawn once
+                wireframeEdges = uniqueEdges(pmesh.getFaces());
+                final int numOfEdges = wireframeEdges.length / 2;
+                int [] facesArray = new int [numOfEdges * faceElementSize];
                 int facesInd = 0;
-                int pointsInd = pmesh.getPoints().size();
-                for(int[] face: pmesh.getFaces()) {
-                    if (DEBUG) System.out.println("face.length = " + (face.length/2)+"  -- "+Arrays.toString(face));
-                    int lastPointIndex = face[face.length-2];
-                    if (DEBUG) System.out.println("    lastPointIndex = " + lastPointIndex);
-                    for (int p=0;p<face.length;p+=2) {
-                        int pointIndex = face[p];
-                        if (DEBUG) System.out.println("        connecting point["+lastPointIndex+"] to point[" + pointIndex+"]");
-                        facesArray[facesInd++] = lastPointIndex;
-                        facesArray[facesInd++] = 0;
-                        facesArray[facesInd++] = pointIndex;
-                        facesArray[facesInd++] = 0;
-                        facesArray[facesInd++] = pointsInd / pointElementSize;
-                        facesArray[facesInd++] = 0;
-                        if (DEBUG) System.out.println("            facesInd = " + facesInd);
-                        pointsInd += pointElementSize;
-                        lastPointIndex = pointIndex;
-                    }
+                for (int e = 0; e < numOfEdges; e++) {
+                    facesArray[facesInd++] = wireframeEdges[2 * e];
+                    facesArray[facesInd++] = 0;
+                    facesArray[facesInd++] = wireframeEdges[2 * e + 1];
+                    facesArray[facesInd++] = 0;
+                    facesArray[facesInd++] = numOfPoints + e;
+                    facesArray[facesInd++] = 0;
                 }
                 triangleMesh.getFaces().setAll(facesArray);
                 triangleMesh.getFaceSmoothingGroups().clear();
+                wireframePoints = new float[(numOfPoints + numOfEdges) * pointElementSize];
             }
             if (texCoordsDirty) {
                 texCoordsDirty = false;
                 // set simple texCoords for wireframe
                 triangleMesh.getTexCoords().setAll(0,0);
             }
-            if (pointsDirty) {
+            // edge points depend on both ends of their edge, so all points are recomputed
+            if (pointsDirty || !dirtyPoints.isEmpty()) {
                 pointsDirty = false;
-                // create points and copy over points to the first part of the array
-                float [] pointsArray = new float [pmesh.getPoints().size() + pmesh.getNumEdgesInFaces()*3];
-                pmesh.getPoints().copyTo(0, pointsArray, 0, pmesh.getPoints().size());
-
-                // add point for each edge
-                int pointsInd = pmesh.getPoints().size();
-                for(int[] face: pmesh.getFaces()) {
-                    int lastPointIndex = face[face.length-2];
-                    for (int p=0;p<face.length;p+=2) {
-                        int pointIndex = face[p];
-                        // get start and end point
-                        final float x1 = pointsArray[lastPointIndex * pointElementSize];
-                        final float y1 = pointsArray[lastPointIndex * pointElementSize + 1];
-                        final float z1 = pointsArray[lastPointIndex * pointElementSize + 2];
-                        final float x2 = pointsArray[pointIndex * pointElementSize];
-                        final float y2 = pointsArray[pointIndex * pointElementSize + 1];
-                        final float z2 = pointsArray[pointIndex * pointElementSize + 2];
-                        final float distance = Math.abs(distanceBetweenPoints(x1,y1,z1,x2,y2,z2));
-                        final float offset = distance/1000;
-                        // add new point
-                        pointsArray[pointsInd++] = x2 + offset;
-                        pointsArray[pointsInd++] = y2 + offset;
-                        pointsArray[pointsInd++] = z2 + offset;
-                        lastPointIndex = pointIndex;
-                    }
+                // copy over points to the first part of the array, then add a point for each edge
+                final float[] pointsArray = wireframePoints;
+                final int[] edges = wireframeEdges;
+                pmesh.getPoints().copyTo(0, pointsArray, 0, numOfPoints * pointElementSize);
+                int pointsInd = numOfPoints * pointElementSize;
+                for (int e = 0; e < edges.length; e += 2) {
+                    final int from = edges[e] * pointElementSize;
+                    final int to = edges[e + 1] * pointElementSize;
+                    final float x2 = pointsArray[to];
+                    final float y2 = pointsArray[to + 1];
+                    final float z2 = pointsArray[to + 2];
+                    final float dx = x2 - pointsArray[from];
+                    final float dy = y2 - pointsArray[from + 1];
+                    final float dz = z2 - pointsArray[from + 2];
+                    final float offset = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / 1000;
+                    pointsArray[pointsInd++] = x2 + offset;
+                    pointsArray[pointsInd++] = y2 + offset;
+                    pointsArray[pointsInd++] = z2 + offset;
                 }
                 triangleMesh.getPoints().setAll(pointsArray);
             }
@@ -342,12 +602,15 @@ public class PolygonMeshView extends Parent {
             // The current triangleMesh implementation gives buggy behavior when the size of faces are shrunken
             // Create a new TriangleMesh as a work around
             // [JIRA] (RT-31178)
-            if (texCoordsDirty || facesDirty || pointsSizeDirty) {
+            // Only a change of topology or array sizes requires a new mesh, value changes are copied in place
+            if (facesDirty || pointsSizeDirty || texCoordsSizeDirty) {
                 triangleMesh = new TriangleMesh();
                 pointsDirty = pointsSizeDirty = texCoordsDirty = facesDirty = true; // to fill in the new triangle mesh
             }
             if (facesDirty) {
                 facesDirty = false;
+                wireframeEdges = null;
+                wireframePoints = null;
                 // create faces and break into triangles
                 final int numOfFacesBefore = pmesh.getFaces().length;
                 final int numOfFacesAfter = pmesh.getNumEdgesInFaces() - 2*numOfFacesBefore;
@@ -383,10 +646,14 @@ public class PolygonMeshView extends Parent {
             if (texCoordsDirty) {
                 texCoordsDirty = false;
                 triangleMesh.getTexCoords().setAll(pmesh.getTexCoords());
+            } else {
+                dirtyTexCoords.copy(pmesh.getTexCoords(), triangleMesh.getTexCoords());
             }
             if (pointsDirty) {
                 pointsDirty = false;
                 triangleMesh.getPoints().setAll(pmesh.getPoints());
+            } else {
+                dirtyPoints.copy(pmesh.getPoints(), triangleMesh.getPoints());
             }
         }
 
@@ -398,13 +665,38 @@ public class PolygonMeshView extends Parent {
         if (meshView.getMesh() != triangleMesh) {
             meshView.setMesh(triangleMesh);
         }
-        pointsDirty = pointsSizeDirty = texCoordsDirty = facesDirty = false;
+        pointsDirty = pointsSizeDirty = texCoordsDirty = texCoordsSizeDirty = facesDirty = false;
+        dirtyPoints.clear();
+        dirtyTexCoords.clear();
     }
 
-    private float distanceBetweenPoints(float x1, float y1, float z1, float x2, float y2, float z2) {
-        return (float)Math.sqrt(
-                Math.pow(z2 - z1,2) +
-                Math.pow(x2 - x1,2) +
-                Math.pow(y2 - y1,2));
+    // Undirected edges of the faces without duplicates, as pairs of point indices
+    private static int[] uniqueEdges(int[][] faces) {
+        int numOfEdges = 0;
+        for (int[] face : faces) {
+            numOfEdges += face.length / 2;
+        }
+        long[] keys = new long[numOfEdges];
+        int k = 0;
+        for (int[] face : faces) {
+            int lastPointIndex = face[face.length - 2];
+            for (int p = 0; p < face.length; p += 2) {
+                int pointIndex = face[p];
+                if (pointIndex != lastPointIndex) {
+                    keys[k++] = ((long) Math.min(lastPointIndex, pointIndex) << 32) | Math.max(lastPointIndex, pointIndex);
+                }
+                lastPointIndex = pointIndex;
+            }
+        }
+        Arrays.sort(keys, 0, k);
+        int[] edges = new int[2 * k];
+        int e = 0;
+        for (int i = 0; i < k; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                edges[e++] = (int) (keys[i] >>> 32);
+                edges[e++] = (int) keys[i];
+            }
+        }
+        return Arrays.copyOf(edges, e);
     }
 }
@@ -31,37 +31,65 @@
  */
 package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon;
 
-import javafx.beans.InvalidationListener;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
-import javafx.collections.ObservableFloatArray;
-import javafx.geometry.Point3D;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.transform.Affine;
 import javafx.scene.transform.MatrixType;
 import javafx.scene.transform.NonInvertibleTransformException;
-import javafx.scene.transform.Transform;
 import com.bingbaihanji.javafxparse3dfile.importers.utils.geom.Joint;
 import com.bingbaihanji.javafxparse3dfile.importers.utils.geom.JointChain;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * PolygonMesh that knows how to update itself given changes in joint transforms.
- * The mesh can be updated with an AnimationTimer.
+ * The mesh can be updated with an AnimationTimer or a {@link MeshUpdateScheduler}.
  */
 public class SkinningMesh extends PolygonMesh {
-    private final float[][] relativePoints; // nJoints x nPoints*3
-    private final float[][] weights; // nJoints x nPoints
-    private final List<Integer>[] weightIndices;
-    private final List<JointIndex> jointIndexForest;
+    /** Default number of joints that may influence a single vertex. */
+    public static final int DEFAULT_MAX_INFLUENCES = 8;
+
+    /** Meshes with fewer influences than this in total are skinned on the calling thread. */
+    public static final int PARALLEL_THRESHOLD = 64 * 1024;
+
+    /** Meshes averaging at least this many influences per point use the vector kernel when it is available. */
+    public static final int VECTOR_THRESHOLD = 3;
+
+    // jdk.incubator.vector is only in the boot layer when the JVM runs with --add-modules jdk.incubator.vector
+    private static final boolean VECTOR_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && SkinningVectorKernel.isSupported();
+
+    // Points per parallel task; binding and skinned coordinates of a block fit in a 64 KiB L2 slice
+    private static final int BLOCK_SIZE = 2048;
+
+    private final float[] bindPoints; // nPoints*3, the binding mesh points
+    private final int[] influenceOffsets; // nPoints+1, influences of point i are at [influenceOffsets[i], influenceOffsets[i+1])
+    private final int[] influenceJoints;
+    private final float[] influenceWeights;
+    private final double[] bindPalette; // nJoints*12, 3x4 binding transforms concatenated with the global binding transform
+    private final double[] palette; // nJoints*12, 3x4 skinning matrices
+    private final double[] paletteColumns; // nJoints*16, palette by columns for the vector kernel
+    private final float[] skinnedPoints; // nPoints*3, reused output buffer
+    // The joints and their ancestors up to the jointForest, sorted so that every node comes after its parent.
+    // The root refers to the group containing all the mesh skinning nodes (i.e. the parent of jointForest)
+    private final Node[] jointNodes;
+    private final int[] parentIndices; // index into jointNodes, -1 for the jointForest
+    private final int[] jointSlots; // index into joints, -1 for nodes that are not skinning joints
+    private final double[] nodeToRootPalette; // jointNodes.length*12
+    private final boolean[] dirtyNodes;
+    private final double[] rootPalette = new double[12]; // inverse of the global binding transform
+    private final double[] localTransform = new double[12];
     private boolean jointsTransformDirty = true;
-    private Transform bindGlobalInverseTransform;
-    private final Transform[] jointToRootTransforms; // the root refers to the group containing all the mesh skinning nodes (i.e. the parent of jointForest)
+    private boolean bindPointsDirty;
+    private boolean asynchronous;
+    private CompletableFuture<Void> pendingUpdate;
     private final int nPoints;
     private final int nJoints;
     private final List<Joint> joints;
@@ -77,135 +105,373 @@ public class SkinningMesh extends PolygonMesh {
      * @param jointForest A list of the top level trees that contain the joints; all the @joints should be contained in this forest
      */
     public SkinningMesh(PolygonMesh mesh, float[][] weights, Affine[] bindTransforms, Affine bindGlobalTransform, List<Joint> joints, List<Parent> jointForest) {
+        this(mesh, toInfluenceJoints(weights, mesh.getPoints().size() / mesh.getPointElementSize()),
+                toInfluenceWeights(weights, mesh.getPoints().size() / mesh.getPointElementSize()),
+                DEFAULT_MAX_INFLUENCES, bindTransforms, bindGlobalTransform, joints, jointForest);
+    }
+
+    /**
+     * SkinningMesh constructor
+     *
+     * @param mesh The binding mesh
+     * @param influenceJoints For every point, the indices into @joints of the joints influencing it
+     * @param influenceWeights For every point, the weights matching @influenceJoints
+     * @param maxInfluences The maximum number of influences kept per point; the strongest are kept and rescaled to the original total weight
+     * @param bindTransforms The binding transforms for every joint
+     * @param bindGlobalTransform The global binding transform; all binding transforms are defined with respect to this frame
+     * @param joints A list of joints used for skinning; the order of these are associated with @influenceJoints and @bindTransforms
+     * @param jointForest A list of the top level trees that contain the joints; all the @joints should be contained in this forest
+     */
+    public SkinningMesh(PolygonMesh mesh, int[][] influenceJoints, float[][] influenceWeights, int maxInfluences,
+            Affine[] bindTransforms, Affine bindGlobalTransform, List<Joint> joints, List<Parent> jointForest) {
         this.getPoints().addAll(mesh.getPoints());
         this.getTexCoords().addAll(mesh.getTexCoords());
         this.setFaces(mesh.getFaces());
         this.getFaceSmoothingGroups().addAll(mesh.getFaceSmoothingGroups());
 
-        this.weights = weights;
         this.joints = joints;
 
         nJoints = joints.size();
         nPoints = getPoints().size() / getPointElementSize();
 
-        // Create the jointIndexForest forest. Its structure is the same as
-        // jointForest, except that this forest have indices information and
-        // some branches are pruned if they don't contain joints.
-        jointIndexForest = new ArrayList<>(jointForest.size());
+        // Sort the joints and the nodes between them and the jointForest so that
+        // parents come first; branches without joints are pruned.
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
         for (Parent jointRoot : jointForest) {
-            jointIndexForest.add(new JointIndex(jointRoot, joints.indexOf(jointRoot), joints));
+            addJointNodes(jointRoot, -1, nodes, parents, joints);
         }
+        jointNodes = nodes.toArray(new Node[0]);
+        parentIndices = new int[jointNodes.length];
+        jointSlots = new int[jointNodes.length];
+        for (int k = 0; k < jointNodes.length; k++) {
+            parentIndices[k] = parents.get(k);
+            jointSlots[k] = joints.indexOf(jointNodes[k]);
+        }
+        nodeToRootPalette = new double[jointNodes.length * 12];
+        dirtyNodes = new boolean[jointNodes.length];
+        Arrays.fill(dirtyNodes, true);
 
         try {
-            bindGlobalInverseTransform = bindGlobalTransform.createInverse();
+            bindGlobalTransform.createInverse().toArray(MatrixType.MT_3D_3x4, rootPalette);
         } catch (NonInvertibleTransformException ex) {
             System.err.println("Caught NonInvertibleTransformException: " + ex.getMessage());
         }
 
-        jointToRootTransforms = new Transform[nJoints];
+        // Flatten the influences of all points, keeping only the strongest non-zero ones
+        influenceOffsets = new int[nPoints + 1];
+        int total = 0;
+        for (int i = 0; i < nPoints; i++) {
+            influenceOffsets[i] = total;
+            total += Math.min(countInfluences(influenceWeights, i), maxInfluences);
+        }
+        influenceOffsets[nPoints] = total;
+        this.influenceJoints = new int[total];
+        this.influenceWeights = new float[total];
+        for (int i = 0; i < nPoints; i++) {
+            if (i < influenceWeights.length && influenceWeights[i] != null) {
+                compressInfluences(influenceJoints[i], influenceWeights[i], influenceOffsets[i], influenceOffsets[i + 1] - influenceOffsets[i]);
+            }
+        }
 
-        // For optimization purposes, store the indices of the non-zero weights
-        weightIndices = new List[nJoints];
+        // The points of the binding mesh relative to the binding transforms are
+        // obtained by folding the binding transforms into the skinning matrices
+        bindPoints = getPoints().toArray(new float[nPoints * 3]);
+        skinnedPoints = new float[nPoints * 3];
+        bindPalette = new double[nJoints * 12];
+        palette = new double[nJoints * 12];
+        paletteColumns = new double[nJoints * 16];
+        double[] t = new double[12];
         for (int j = 0; j < nJoints; j++) {
-            weightIndices[j] = new ArrayList<Integer>();
-            for (int i = 0; i < nPoints; i++) {
+            bindTransforms[j].createConcatenation(bindGlobalTransform).toArray(MatrixType.MT_3D_3x4, t);
+            System.arraycopy(t, 0, bindPalette, j * 12, 12);
+        }
+
+        // Add a listener to all the joints (and their parents nodes) so that we can track when any of their transforms have changed
+        for (int k = 0; k < jointNodes.length; k++) {
+            final int index = k;
+            jointNodes[k].localToParentTransformProperty().addListener(observable -> {
+                dirtyNodes[index] = true;
+                jointsTransformDirty = true;
+            });
+        }
+    }
+
+    // Adds node and its descendants containing joints in depth-first order, returns whether anything was added
+    private static boolean addJointNodes(Node node, int parent, List<Node> nodes, List<Integer> parents, List<Joint> joints) {
+        int index = nodes.size();
+        nodes.add(node);
+        parents.add(parent);
+        boolean hasJoints = joints.contains(node);
+        if (node instanceof Parent) {
+            for (Node child : ((Parent) node).getChildrenUnmodifiable()) {
+                if (child instanceof Parent) { // is child a joint or a node with children?
+                    hasJoints |= addJointNodes(child, index, nodes, parents, joints);
+                }
+            }
+        }
+        if (!hasJoints) {
+            nodes.remove(index);
+            parents.remove(index);
+        }
+        return hasJoints;
+    }
+
+    private static int[][] toInfluenceJoints(float[][] weights, int nPoints) {
+        int[][] influenceJoints = new int[nPoints][];
+        for (int i = 0; i < nPoints; i++) {
+            int count = 0;
+            for (float[] jointWeights : weights) {
+                if (jointWeights[i] != 0.0f) {
+                    count++;
+                }
+            }
+            influenceJoints[i] = new int[count];
+            count = 0;
+            for (int j = 0; j < weights.length; j++) {
                 if (weights[j][i] != 0.0f) {
-                    weightIndices[j].add(i);
+                    influenceJoints[i][count++] = j;
                 }
             }
         }
+        return influenceJoints;
+    }
 
-        // Compute the points of the binding mesh relative to the binding transforms
-        ObservableFloatArray points = getPoints();
-        relativePoints = new float[nJoints][nPoints*3];
-        for (int j = 0; j < nJoints; j++) {
-            Transform postBindTransform = bindTransforms[j].createConcatenation(bindGlobalTransform);
-            for (int i = 0; i < nPoints; i++) {
-                Point3D relativePoint = postBindTransform.transform(points.get(3*i), points.get(3*i+1), points.get(3*i+2));
-                relativePoints[j][3*i]   = (float) relativePoint.getX();
-                relativePoints[j][3*i+1] = (float) relativePoint.getY();
-                relativePoints[j][3*i+2] = (float) relativePoint.getZ();
+    private static float[][] toInfluenceWeights(float[][] weights, int nPoints) {
+        float[][] influenceWeights = new float[nPoints][];
+        for (int i = 0; i < nPoints; i++) {
+            int count = 0;
+            for (float[] jointWeights : weights) {
+                if (jointWeights[i] != 0.0f) {
+                    count++;
+                }
+            }
+            influenceWeights[i] = new float[count];
+            count = 0;
+            for (float[] jointWeights : weights) {
+                if (jointWeights[i] != 0.0f) {
+                    influenceWeights[i][count++] = jointWeights[i];
+                }
             }
         }
+        return influenceWeights;
+    }
 
-        // Add a listener to all the joints (and their parents nodes) so that we can track when any of their transforms have changed
-        // Set of joints that already have a listener (so we don't attach a listener to the same node more than once)
-        Set<Node> processedNodes = new HashSet<>(joints.size());
-        InvalidationListener invalidationListener = observable -> jointsTransformDirty = true;
-        for (int j = 0; j < joints.size(); j++) {
-            Node node = joints.get(j);
-            while (!processedNodes.contains(node)) {
-                node.localToParentTransformProperty().addListener(invalidationListener);
-                processedNodes.add(node);
-                // Don't check for nodes above the jointForest
-                if (jointForest.contains(node)) {
-                    break;
+    private static int countInfluences(float[][] influenceWeights, int i) {
+        if (i >= influenceWeights.length || influenceWeights[i] == null) {
+            return 0;
+        }
+        int count = 0;
+        for (float w : influenceWeights[i]) {
+            if (w != 0.0f) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Stores the n strongest non-zero influences at offset, rescaled so that they keep the total weight of all of them
+    private void compressInfluences(int[] jointIndices, float[] weights, int offset, int n) {
+        if (n == 0) {
+            return;
+        }
+        double totalWeight = 0;
+        int count = 0;
+        for (int k = 0; k < weights.length; k++) {
+            float w = weights[k];
+            if (w == 0.0f) {
+                continue;
+            }
+            totalWeight += w;
+            // insertion into the top n by magnitude, kept in decreasing order
+            int pos = Math.min(count, n);
+            while (pos > 0 && Math.abs(influenceWeights[offset + pos - 1]) < Math.abs(w)) {
+                if (pos < n) {
+                    influenceWeights[offset + pos] = influenceWeights[offset + pos - 1];
+                    influenceJoints[offset + pos] = influenceJoints[offset + pos - 1];
                 }
-                node = node.getParent();
-            }
-        }
-    }
-
-    private class JointIndex {
-        public Node node;
-        public int index;
-        public List<JointIndex> children = new ArrayList<>();
-        public JointIndex parent = null;
-        public Transform localToGlobalTransform;
-        public JointIndex(Node n, int ind, List<Joint> orderedJoints) {
-            node = n;
-            index = ind;
-            if (node instanceof Parent) {
-                for (Node childJoint : ((Parent) node).getChildrenUnmodifiable()) {
-                    if (childJoint instanceof Parent) { // is childJoint a joint or a node with children?
-                        int childInd = orderedJoints.indexOf(childJoint);
-                        JointIndex childJointIndex = new JointIndex(childJoint, childInd, orderedJoints);
-                        childJointIndex.parent = this;
-                        children.add(childJointIndex);
-                    }
+                pos--;
+            }
+            if (pos < n) {
+                influenceWeights[offset + pos] = w;
+                influenceJoints[offset + pos] = jointIndices[k];
+            }
+            count++;
+        }
+        if (count > n) {
+            double keptWeight = 0;
+            for (int k = offset; k < offset + n; k++) {
+                keptWeight += influenceWeights[k];
+            }
+            if (keptWeight != 0) {
+                for (int k = offset; k < offset + n; k++) {
+                    influenceWeights[k] = (float) (influenceWeights[k] * totalWeight / keptWeight);
                 }
             }
         }
     }
 
-    // Updates the jointToRootTransforms by doing a a depth-first search of the jointIndexForest
-    private void updateLocalToGlobalTransforms(List<JointIndex> jointIndexForest) {
-        for (JointIndex jointIndex : jointIndexForest) {
-            if (jointIndex.parent == null) {
-                jointIndex.localToGlobalTransform = bindGlobalInverseTransform.createConcatenation(jointIndex.node.getLocalToParentTransform());
+    // Recomputes, in one forward pass, the node-to-root transforms of the nodes whose local transform
+    // changed and of their descendants, and the skinning matrices of the joints among them
+    private void updatePalette() {
+        for (int k = 0; k < jointNodes.length; k++) {
+            int parent = parentIndices[k];
+            if (!dirtyNodes[k] && (parent < 0 || !dirtyNodes[parent])) {
+                continue;
+            }
+            dirtyNodes[k] = true;
+            jointNodes[k].getLocalToParentTransform().toArray(MatrixType.MT_3D_3x4, localTransform);
+            if (parent < 0) {
+                concatenate(rootPalette, 0, localTransform, 0, nodeToRootPalette, k * 12);
             } else {
-                jointIndex.localToGlobalTransform = jointIndex.parent.localToGlobalTransform.createConcatenation(jointIndex.node.getLocalToParentTransform());
+                concatenate(nodeToRootPalette, parent * 12, localTransform, 0, nodeToRootPalette, k * 12);
             }
-            if (jointIndex.index != -1) {
-                jointToRootTransforms[jointIndex.index] = jointIndex.localToGlobalTransform;
+            int slot = jointSlots[k];
+            if (slot != -1) {
+                concatenate(nodeToRootPalette, k * 12, bindPalette, slot * 12, palette, slot * 12);
             }
-            updateLocalToGlobalTransforms(jointIndex.children);
         }
+        Arrays.fill(dirtyNodes, false);
+    }
+
+    /**
+     * Sets whether the skinned points are computed on a worker thread. The joint
+     * matrices are still read on the calling thread by {@link #update()}, and the
+     * result is copied into the points by the first call to {@code update()} after
+     * it is ready, which adds one frame of latency. Off by default.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
     }
 
     // Updates its points only if any of the joints' transforms have changed
     public void update() {
-        if (!jointsTransformDirty) {
-            return;
+        if (prepareUpdate()) {
+            skin();
+            applyUpdate();
         }
+    }
 
-        updateLocalToGlobalTransforms(jointIndexForest);
+    /**
+     * Whether {@link #update()} has anything to do, either because a joint or the
+     * binding pose moved or because an asynchronous update is still to be swapped in.
+     */
+    public boolean isDirty() {
+        return jointsTransformDirty || bindPointsDirty || pendingUpdate != null;
+    }
 
-        float[] points = new float[nPoints*3];
-        double[] t = new double[12];
-        float[] relativePoint;
-        for (int j = 0; j < nJoints; j++) {
-            jointToRootTransforms[j].toArray(MatrixType.MT_3D_3x4, t);
-            relativePoint = relativePoints[j];
-            for (Integer i : weightIndices[j]) {
-                points[3*i]   += weights[j][i] * (t[0] * relativePoint[3*i] + t[1] * relativePoint[3*i+1] + t[2] * relativePoint[3*i+2] + t[3]);
-                points[3*i+1] += weights[j][i] * (t[4] * relativePoint[3*i] + t[5] * relativePoint[3*i+1] + t[6] * relativePoint[3*i+2] + t[7]);
-                points[3*i+2] += weights[j][i] * (t[8] * relativePoint[3*i] + t[9] * relativePoint[3*i+1] + t[10] * relativePoint[3*i+2] + t[11]);
+    // The joints deforming this mesh
+    List<Joint> getJoints() {
+        return joints;
+    }
+
+    // Replaces the binding pose points, e.g. by a BlendShape deforming this mesh before skinning
+    void setBindPoints(float[] points) {
+        if (pendingUpdate != null) {
+            // the worker reads the binding points
+            pendingUpdate.join();
+        }
+        System.arraycopy(points, 0, bindPoints, 0, bindPoints.length);
+        bindPointsDirty = true;
+    }
+
+    // Reads the joint transforms, must be called on the FX thread. Returns whether
+    // computeUpdate and applyUpdate have to follow; asynchronous meshes do that themselves.
+    boolean prepareUpdate() {
+        if (pendingUpdate != null) {
+            if (asynchronous && !pendingUpdate.isDone()) {
+                return false;
             }
+            pendingUpdate.join();
+            pendingUpdate = null;
+            applyUpdate();
+        }
+        if (!jointsTransformDirty && !bindPointsDirty) {
+            return false;
         }
-        getPoints().set(0, points, 0, points.length);
 
+        updatePalette();
         jointsTransformDirty = false;
+        bindPointsDirty = false;
+        if (asynchronous) {
+            // palette and skinnedPoints are not touched here again until the result is swapped in
+            pendingUpdate = CompletableFuture.runAsync(this::skin);
+            return false;
+        }
+        return true;
+    }
+
+    // Skins the points into the output buffer, may be called on any thread
+    void computeUpdate() {
+        skin();
+    }
+
+    // Copies the output buffer into the points, must be called on the FX thread
+    void applyUpdate() {
+        getPoints().set(0, skinnedPoints, 0, skinnedPoints.length);
+    }
+
+    // Picks the kernel from the total and the average number of influences per point
+    private void skin() {
+        int influences = influenceOffsets[nPoints];
+        skin(influences >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1,
+                VECTOR_AVAILABLE && influences >= VECTOR_THRESHOLD * nPoints);
+    }
+
+    // Skins all the points with the given kernel; the vector kernel needs jdk.incubator.vector
+    void skin(boolean parallel, boolean vector) {
+        if (vector) {
+            SkinningVectorKernel.toColumns(palette, paletteColumns);
+        }
+        if (!parallel) {
+            skin(0, nPoints, vector);
+        } else {
+            IntStream.range(0, (nPoints + BLOCK_SIZE - 1) / BLOCK_SIZE).parallel()
+                    .forEach(b -> skin(b * BLOCK_SIZE, Math.min(nPoints, (b + 1) * BLOCK_SIZE), vector));
+        }
+    }
+
+    private void skin(int from, int to, boolean vector) {
+        if (vector) {
+            SkinningVectorKernel.skin(bindPoints, influenceOffsets, influenceJoints, influenceWeights,
+                    paletteColumns, skinnedPoints, from, to);
+        } else {
+            skin(from, to);
+        }
+    }
+
+    // out = a * b, all of them 3x4 affine matrices stored row by row
+    private static void concatenate(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset) {
+        for (int r = 0; r < 3; r++) {
+            double a0 = a[aOffset + 4*r], a1 = a[aOffset + 4*r+1], a2 = a[aOffset + 4*r+2];
+            for (int c = 0; c < 4; c++) {
+                out[outOffset + 4*r + c] = a0 * b[bOffset + c] + a1 * b[bOffset + 4 + c] + a2 * b[bOffset + 8 + c];
+            }
+            out[outOffset + 4*r + 3] += a[aOffset + 4*r+3];
+        }
+    }
+
+    // Transforms the binding points [from, to) by the weighted skinning matrices into skinnedPoints
+    private void skin(int from, int to) {
+        final double[] m = palette;
+        for (int i = from; i < to; i++) {
+            double x = bindPoints[3*i], y = bindPoints[3*i+1], z = bindPoints[3*i+2];
+            double px = 0, py = 0, pz = 0;
+            for (int k = influenceOffsets[i], end = influenceOffsets[i+1]; k < end; k++) {
+                int j = influenceJoints[k] * 12;
+                double w = influenceWeights[k];
+                px += w * (m[j]   * x + m[j+1] * y + m[j+2]  * z + m[j+3]);
+                py += w * (m[j+4] * x + m[j+5] * y + m[j+6]  * z + m[j+7]);
+                pz += w * (m[j+8] * x + m[j+9] * y + m[j+10] * z + m[j+11]);
+            }
+            skinnedPoints[3*i]   = (float) px;
+            skinnedPoints[3*i+1] = (float) py;
+            skinnedPoints[3*i+2] = (float) pz;
+        }
     }
 
     // showSkeleton
@@ -0,0 +1,59 @@
+package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The skinning loop of {@link SkinningMesh} on the jdk.incubator.vector API.
+ * SkinningMesh only touches this class after finding the module in the boot layer,
+ * so the application still runs without {@code --add-modules jdk.incubator.vector}.
+ */
+final class SkinningVectorKernel {
+
+    // One lane per coordinate of a matrix column, the fourth lane is padding
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+
+    private SkinningVectorKernel() {
+    }
+
+    // Whether the CPU has 256-bit double vectors; on narrower hardware the API runs a slow emulation
+    static boolean isSupported() {
+        return DoubleVector.SPECIES_PREFERRED.vectorBitSize() >= SPECIES.vectorBitSize();
+    }
+
+    // Copies the 3x4 row-major matrices of palette into columns (nJoints*16), 4 columns of 4 lanes per joint
+    static void toColumns(double[] palette, double[] columns) {
+        for (int j = 0, n = palette.length / 12; j < n; j++) {
+            for (int c = 0; c < 4; c++) {
+                columns[16*j + 4*c]     = palette[12*j + c];
+                columns[16*j + 4*c + 1] = palette[12*j + 4 + c];
+                columns[16*j + 4*c + 2] = palette[12*j + 8 + c];
+            }
+        }
+    }
+
+    // Transforms the binding points [from, to) by the weighted skinning matrices into skinnedPoints.
+    // The columns of the joint matrices are blended first, each in its own accumulator, so consecutive
+    // influences do not wait on each other, and the blended matrix is applied to the point once
+    static void skin(float[] bindPoints, int[] influenceOffsets, int[] influenceJoints, float[] influenceWeights,
+            double[] columns, float[] skinnedPoints, int from, int to) {
+        double[] p = new double[4];
+        for (int i = from; i < to; i++) {
+            DoubleVector c0 = DoubleVector.zero(SPECIES), c1 = c0, c2 = c0, c3 = c0;
+            for (int k = influenceOffsets[i], end = influenceOffsets[i+1]; k < end; k++) {
+                int j = influenceJoints[k] * 16;
+                DoubleVector w = DoubleVector.broadcast(SPECIES, influenceWeights[k]);
+                c0 = DoubleVector.fromArray(SPECIES, columns, j).fma(w, c0);
+                c1 = DoubleVector.fromArray(SPECIES, columns, j + 4).fma(w, c1);
+                c2 = DoubleVector.fromArray(SPECIES, columns, j + 8).fma(w, c2);
+                c3 = DoubleVector.fromArray(SPECIES, columns, j + 12).fma(w, c3);
+            }
+            double x = bindPoints[3*i], y = bindPoints[3*i+1], z = bindPoints[3*i+2];
+            c0.fma(DoubleVector.broadcast(SPECIES, x), c1.fma(DoubleVector.broadcast(SPECIES, y),
+                    c2.fma(DoubleVector.broadcast(SPECIES, z), c3))).intoArray(p, 0);
+            skinnedPoints[3*i]   = (float) p[0];
+            skinnedPoints[3*i+1] = (float) p[1];
+            skinnedPoints[3*i+2] = (float) p[2];
+        }
+    }
+}
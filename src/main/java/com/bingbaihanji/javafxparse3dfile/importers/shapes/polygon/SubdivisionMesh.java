@@ -32,21 +32,38 @@
 package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon;
 
 
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic.FlattenedPointArray;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic.SubdivisionTopology;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic.SymbolicPointArray;
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic.SymbolicPolygonMesh;
-import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic.SymbolicSubdivisionBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Catmull Clark subdivision surface polygon mesh
  */
 public class SubdivisionMesh extends PolygonMesh {
+    /**
+     * Weights below this value are dropped from the flattened stencils of
+     * animated meshes subdivided more than once.
+     */
+    public static final float DEFAULT_STENCIL_TOLERANCE = 1e-5f;
+
     private final PolygonMesh originalMesh;
     private int subdivisionLevel;
     private BoundaryMode boundaryMode;
     private MapBorderMode mapBorderMode;
     private final List<SymbolicPolygonMesh> symbolicMeshes;
+    private SubdivisionTopology topology; // shared with the other meshes of the same topology
+    private boolean stencilFlattening;
+    private float stencilTolerance = DEFAULT_STENCIL_TOLERANCE;
+    // points of the current level computed directly from the original points, built on
+    // the second evaluation of the same topology so that static meshes don't pay for it
+    private FlattenedPointArray flattenedPoints;
+    private boolean levelsEvaluated;
+    private int topologyVersion; // incremented whenever the symbolic meshes are discarded
 
     private boolean pointValuesDirty;
     private boolean meshDirty;
@@ -96,6 +113,9 @@ public class SubdivisionMesh extends PolygonMesh {
             if (sizeChanged) {
                 meshDirty = true;
             } else {
+                if (pointValuesDirty) {
+                    MeshUpdateScheduler.getDefault().countCoalescedUpdate();
+                }
                 pointValuesDirty = true;
             }
         });
@@ -107,28 +127,66 @@ public class SubdivisionMesh extends PolygonMesh {
      * It only updates the fields that need to be updated.
      */
     public void update() {
+        computeUpdate();
+        applyUpdate();
+    }
+
+    /**
+     * Whether the original mesh or the subdivision settings changed since the last update.
+     */
+    public boolean isDirty() {
+        return meshDirty || pointValuesDirty || subdivisionLevelDirty;
+    }
+
+    // Subdivides the original mesh into the symbolic meshes without touching this mesh,
+    // so it may run on any thread as long as the original mesh is not being modified
+    void computeUpdate() {
         if (meshDirty) {
+            topologyVersion++;
             symbolicMeshes.clear();
             symbolicMeshes.add(new SymbolicPolygonMesh(originalMesh));
+            topology = SubdivisionTopology.get(symbolicMeshes.get(0), boundaryMode, mapBorderMode);
             pointValuesDirty = true;
             subdivisionLevelDirty = true;
         }
 
         while (subdivisionLevel >= symbolicMeshes.size()) {
-            symbolicMeshes.add(SymbolicSubdivisionBuilder.subdivide(symbolicMeshes.get(symbolicMeshes.size() - 1), boundaryMode, mapBorderMode));
+            symbolicMeshes.add(topology.subdivide(symbolicMeshes.get(symbolicMeshes.size() - 1), symbolicMeshes.size()));
             pointValuesDirty = true;
             subdivisionLevelDirty = true;
         }
 
+        if (subdivisionLevelDirty) {
+            // intermediate levels are not kept up to date by the flattened points
+            flattenedPoints = null;
+            levelsEvaluated = false;
+            pointValuesDirty = true;
+        }
+
         if (pointValuesDirty) {
-            for (int i = 0; i <= subdivisionLevel; i++) {
-                SymbolicPolygonMesh symbolicMesh = symbolicMeshes.get(i);
-                symbolicMesh.points.update();
+            if (stencilFlattening && flattenedPoints == null && levelsEvaluated && subdivisionLevel > 1
+                    && ForkJoinPool.getCommonPoolParallelism() > 1) {
+                flattenedPoints = topology.flatten(symbolicMeshes.subList(0, subdivisionLevel + 1), stencilTolerance);
+            }
+            if (flattenedPoints != null) {
+                symbolicMeshes.get(0).points.update();
+                flattenedPoints.update();
+            } else {
+                for (int i = 0; i <= subdivisionLevel; i++) {
+                    SymbolicPolygonMesh symbolicMesh = symbolicMeshes.get(i);
+                    symbolicMesh.points.update();
+                }
+                levelsEvaluated = true;
             }
         }
+        meshDirty = false;
+    }
 
+    // Copies the subdivided data into this mesh, must be called on the FX thread
+    void applyUpdate() {
         if (pointValuesDirty || subdivisionLevelDirty) {
-            getPoints().setAll(symbolicMeshes.get(subdivisionLevel).points.data);
+            SymbolicPointArray points = flattenedPoints != null ? flattenedPoints : symbolicMeshes.get(subdivisionLevel).points;
+            getPoints().setAll(points.data);
         }
 
         if (subdivisionLevelDirty) {
@@ -143,6 +201,91 @@ public class SubdivisionMesh extends PolygonMesh {
         subdivisionLevelDirty = false;
     }
 
+    /**
+     * Symbolic meshes of consecutive subdivision levels, starting at level 0,
+     * built for a given topology of the original mesh.
+     */
+    static final class Levels {
+        final int topologyVersion;
+        final SubdivisionTopology topology;
+        final List<SymbolicPolygonMesh> meshes;
+
+        Levels(int topologyVersion, SubdivisionTopology topology, List<SymbolicPolygonMesh> meshes) {
+            this.topologyVersion = topologyVersion;
+            this.topology = topology;
+            this.meshes = meshes;
+        }
+    }
+
+    int getTopologyVersion() {
+        return topologyVersion;
+    }
+
+    /**
+     * Whether the symbolic mesh of the given level is already built, so that
+     * switching to it doesn't require subdividing.
+     */
+    public boolean isSubdivisionLevelBuilt(int level) {
+        return !meshDirty && level < symbolicMeshes.size();
+    }
+
+    // Returns the levels built so far, or null if the topology must be rebuilt first.
+    // Must be called on the FX thread
+    Levels getLevels() {
+        if (meshDirty || symbolicMeshes.isEmpty()) {
+            return null;
+        }
+        return new Levels(topologyVersion, topology, new ArrayList<>(symbolicMeshes));
+    }
+
+    // Subdivides the last of the given levels up to the given level. Only reads the
+    // topology of the existing levels, so it may run on any thread
+    Levels subdivideLevels(Levels levels, int level) {
+        List<SymbolicPolygonMesh> meshes = new ArrayList<>(levels.meshes);
+        while (level >= meshes.size()) {
+            meshes.add(levels.topology.subdivide(meshes.get(meshes.size() - 1), meshes.size()));
+        }
+        return new Levels(levels.topologyVersion, levels.topology, meshes);
+    }
+
+    // Adopts levels built by subdivideLevels, unless the topology changed since they
+    // were started. Points are evaluated by the next update. Must be called on the FX thread
+    boolean addLevels(Levels levels) {
+        if (meshDirty || levels.topologyVersion != topologyVersion) {
+            return false;
+        }
+        for (int i = symbolicMeshes.size(); i < levels.meshes.size(); i++) {
+            symbolicMeshes.add(levels.meshes.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * Estimated memory used by the symbolic mesh of the given level, in bytes,
+     * or 0 if the level isn't built.
+     */
+    public long getLevelMemory(int level) {
+        if (level >= symbolicMeshes.size()) {
+            return 0;
+        }
+        SymbolicPolygonMesh mesh = symbolicMeshes.get(level);
+        // points and their stencils, texCoords, and faces with their array headers
+        return 4L * mesh.points.data.length * 4
+                + 4L * mesh.texCoords.length
+                + (4L * 8 + 16) * mesh.faces.length;
+    }
+
+    /**
+     * Discards the built symbolic meshes above the given level, which is never
+     * lower than the current subdivision level.
+     */
+    public void discardLevelsAbove(int level) {
+        int keep = Math.max(level, subdivisionLevel) + 1;
+        while (symbolicMeshes.size() > keep) {
+            symbolicMeshes.remove(symbolicMeshes.size() - 1);
+        }
+    }
+
     private void setSubdivisionLevelForced(int subdivisionLevel) {
         this.subdivisionLevel = subdivisionLevel;
         subdivisionLevelDirty = true;
@@ -158,6 +301,45 @@ public class SubdivisionMesh extends PolygonMesh {
         meshDirty = true;
     }
 
+    public boolean isStencilFlattening() {
+        return stencilFlattening;
+    }
+
+    /**
+     * When enabled, an animated mesh subdivided more than once multiplies the
+     * stencils of all its levels into one matrix, and each point update becomes
+     * a single sparse matrix-vector product from the original points instead of
+     * one pass per level. The flattened matrix holds more weights per point than
+     * the last level alone, so it pays off when the single parallel pass matters
+     * more than the extra arithmetic, e.g. on many cores. It is only used when
+     * the common fork-join pool has more than one thread, and the matrix is
+     * shared by all the meshes of the same topology.
+     */
+    public void setStencilFlattening(boolean stencilFlattening) {
+        if (stencilFlattening != this.stencilFlattening) {
+            this.stencilFlattening = stencilFlattening;
+            flattenedPoints = null;
+            pointValuesDirty = true;
+        }
+    }
+
+    public float getStencilTolerance() {
+        return stencilTolerance;
+    }
+
+    /**
+     * Sets the smallest weight kept when the stencils of several subdivision
+     * levels are multiplied into one matrix. Larger tolerances give smaller
+     * matrices and faster updates, at the cost of accuracy.
+     */
+    public void setStencilTolerance(float stencilTolerance) {
+        if (stencilTolerance != this.stencilTolerance) {
+            this.stencilTolerance = stencilTolerance;
+            flattenedPoints = null;
+            pointValuesDirty = true;
+        }
+    }
+
     public PolygonMesh getOriginalMesh() {
         return originalMesh;
     }
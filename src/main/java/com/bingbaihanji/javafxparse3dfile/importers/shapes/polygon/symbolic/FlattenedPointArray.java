@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2010, 2014, Oracle and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is available and licensed under the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of Oracle Corporation nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Points of the last of a chain of subdivision levels, computed directly from the points
+ * of the original mesh. The stencils of all levels are multiplied once into a single sparse
+ * matrix, so each update is one sparse matrix-vector product instead of one pass per level.
+ *
+ * Weights smaller than the tolerance are dropped while the matrix is built, and the rest of
+ * the weights of the point are rescaled to keep their sum.
+ */
+public class FlattenedPointArray extends SymbolicPointArray {
+
+    // Points per parallel task
+    private static final int BLOCK_SIZE = 2048;
+
+    private final float[] controlPoints; // points of the original mesh
+    final Stencils stencils;
+
+    /**
+     * The flattened matrix, immutable and shared by the meshes of a topology.
+     */
+    static final class Stencils {
+        final int numPoints;
+        final float tolerance;
+        final int[] offsets; // numPoints+1, terms of point i
+        final int[] inds; // indices corresponding to controlPoints
+        final float[] factors; // factors corresponding to controlPoints
+
+        Stencils(int numPoints, float tolerance, int[] offsets, int[] inds, float[] factors) {
+            this.numPoints = numPoints;
+            this.tolerance = tolerance;
+            this.offsets = offsets;
+            this.inds = inds;
+            this.factors = factors;
+        }
+    }
+
+    /**
+     * @param originalPointArray points of the original mesh
+     * @param levels subdivided points of each level, the first one computed from originalPointArray
+     * @param tolerance smallest weight kept in the matrix
+     */
+    public FlattenedPointArray(SymbolicPointArray originalPointArray, List<SubdividedPointArray> levels, float tolerance) {
+        this(originalPointArray, flatten(originalPointArray.numPoints,
+                levels.stream().map(level -> level.stencils).collect(Collectors.toList()), tolerance));
+    }
+
+    // Evaluates an already flattened matrix on the points of another mesh of the same topology
+    FlattenedPointArray(SymbolicPointArray originalPointArray, Stencils stencils) {
+        super(new float[NUM_COMPONENTS_PER_POINT * stencils.numPoints]);
+        this.controlPoints = originalPointArray.data;
+        this.stencils = stencils;
+    }
+
+    // Multiplies the stencils of consecutive levels, the first one referring to the original points
+    static Stencils flatten(int numOriginalPoints, List<SubdividedPointArray.Stencils> levels, float tolerance) {
+        double[] sums = new double[numOriginalPoints];
+        int[] columns = new int[numOriginalPoints];
+        boolean[] used = new boolean[numOriginalPoints];
+
+        // rows of the previous level, null for the identity of the original points
+        int[] prevOffsets = null;
+        int[] prevInds = null;
+        float[] prevFactors = null;
+        int[] rowOffsets = null;
+        int[] rowInds = null;
+        float[] rowFactors = null;
+        for (SubdividedPointArray.Stencils stencils : levels) {
+            rowOffsets = new int[stencils.numPoints + 1];
+            rowInds = new int[stencils.numPoints * 8];
+            rowFactors = new float[stencils.numPoints * 8];
+            for (int i = 0; i < stencils.currPoint; i++) {
+                int count = 0;
+                // control terms refer to the previous level
+                for (int j = stencils.controlOffsets[i]; j < stencils.controlOffsets[i + 1]; j++) {
+                    int c = stencils.controlInds[j];
+                    float f = stencils.controlFactors[j];
+                    if (prevOffsets == null) {
+                        count = accumulate(c, f, sums, columns, used, count);
+                    } else {
+                        for (int k = prevOffsets[c]; k < prevOffsets[c + 1]; k++) {
+                            count = accumulate(prevInds[k], (double) f * prevFactors[k], sums, columns, used, count);
+                        }
+                    }
+                }
+                // dependent terms refer to points of this level that are already flattened
+                for (int j = stencils.offsets[i]; j < stencils.offsets[i + 1]; j++) {
+                    int d = stencils.inds[j];
+                    float f = stencils.factors[j];
+                    for (int k = rowOffsets[d]; k < rowOffsets[d + 1]; k++) {
+                        count = accumulate(rowInds[k], (double) f * rowFactors[k], sums, columns, used, count);
+                    }
+                }
+
+                double total = 0, kept = 0;
+                for (int k = 0; k < count; k++) {
+                    total += sums[columns[k]];
+                    if (Math.abs(sums[columns[k]]) >= tolerance) {
+                        kept += sums[columns[k]];
+                    }
+                }
+                double scale = kept != 0 ? total / kept : 1;
+                Arrays.sort(columns, 0, count);
+                int offset = rowOffsets[i];
+                if (rowInds.length < offset + count) {
+                    rowInds = Arrays.copyOf(rowInds, Math.max(rowInds.length * 2, offset + count));
+                    rowFactors = Arrays.copyOf(rowFactors, rowInds.length);
+                }
+                for (int k = 0; k < count; k++) {
+                    int column = columns[k];
+                    if (Math.abs(sums[column]) >= tolerance) {
+                        rowInds[offset] = column;
+                        rowFactors[offset] = (float) (sums[column] * scale);
+                        offset++;
+                    }
+                    sums[column] = 0;
+                    used[column] = false;
+                }
+                rowOffsets[i + 1] = offset;
+            }
+            // points that were never added have no terms
+            Arrays.fill(rowOffsets, stencils.currPoint + 1, rowOffsets.length, rowOffsets[stencils.currPoint]);
+            prevOffsets = rowOffsets;
+            prevInds = rowInds;
+            prevFactors = rowFactors;
+        }
+        return new Stencils(levels.get(levels.size() - 1).numPoints, tolerance, rowOffsets, rowInds, rowFactors);
+    }
+
+    private static int accumulate(int column, double factor, double[] sums, int[] columns, boolean[] used, int count) {
+        if (!used[column]) {
+            used[column] = true;
+            columns[count++] = column;
+        }
+        sums[column] += factor;
+        return count;
+    }
+
+    /**
+     * Number of non-zero weights in the matrix.
+     */
+    public int getNumWeights() {
+        return stencils.offsets[numPoints];
+    }
+
+    @Override
+    public void update() {
+        if (numPoints < SubdividedPointArray.PARALLEL_THRESHOLD) {
+            evaluate(0, numPoints);
+        } else {
+            IntStream.range(0, (numPoints + BLOCK_SIZE - 1) / BLOCK_SIZE).parallel()
+                    .forEach(b -> evaluate(b * BLOCK_SIZE, Math.min(numPoints, (b + 1) * BLOCK_SIZE)));
+        }
+    }
+
+    private void evaluate(int from, int to) {
+        final int[] offsets = stencils.offsets;
+        final int[] inds = stencils.inds;
+        final float[] factors = stencils.factors;
+        int ci;
+        float f;
+        float x, y, z;
+        for (int i = from; i < to; i++) {
+            x = y = z = 0.0f;
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                ci = 3 * inds[j];
+                f = factors[j];
+                x += controlPoints[ci] * f;
+                y += controlPoints[ci + 1] * f;
+                z += controlPoints[ci + 2] * f;
+            }
+            data[3*i] = x;
+            data[3*i+1] = y;
+            data[3*i+2] = z;
+        }
+    }
+}
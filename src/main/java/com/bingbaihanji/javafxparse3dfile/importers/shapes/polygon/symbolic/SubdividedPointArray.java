@@ -36,128 +36,204 @@ package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic;
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh;
 
 import java.util.Arrays;
+import java.util.stream.IntStream;
 
+/**
+ * Points of a subdivision level, each one a weighted sum of points of the previous level
+ * (control terms) and of face and edge points of this level (dependent terms). The weights
+ * are stored in compressed sparse row form: the terms of point i are at
+ * [offsets[i], offsets[i+1]) in the contiguous index and weight arrays.
+ *
+ * Face points must be added before edge points, and edge points before control points,
+ * so that each group only depends on the groups before it and can be evaluated in parallel.
+ *
+ * The weights only depend on the topology, so point arrays of meshes with the same
+ * topology share them and only keep their own point values.
+ */
 public class SubdividedPointArray extends SymbolicPointArray {
-    private final float[] controlPoints; // points of the previous subdivision level
-    private final int[][] controlInds; // indices corresponding to controlPoints
-    private final float[][] controlFactors; // factors corresponding to controlPoints
-    private final int[][] inds;
-    private final float[][] factors;
 
-    private final SubdivisionMesh.BoundaryMode boundaryMode;
+    // Minimum number of points in a group before it is evaluated in parallel
+    static final int PARALLEL_THRESHOLD = 16 * 1024;
 
-    private int currPoint = 0;
+    // Points per parallel task
+    private static final int BLOCK_SIZE = 2048;
 
-    public SubdividedPointArray(SymbolicPointArray controlPointArray, int numPoints, SubdivisionMesh.BoundaryMode boundaryMode) {
-        super(new float[NUM_COMPONENTS_PER_POINT * numPoints]);
+    private final float[] controlPoints; // points of the previous subdivision level
+    final Stencils stencils;
+
+    /**
+     * Weights of the points of a subdivision level, immutable once all points are added.
+     */
+    static final class Stencils {
+        final int numPoints;
+        final int[] controlOffsets; // numPoints+1, control terms of point i
+        int[] controlInds; // indices corresponding to controlPoints
+        float[] controlFactors; // factors corresponding to controlPoints
+        final int[] offsets; // numPoints+1, dependent terms of point i
+        int[] inds; // indices corresponding to data
+        float[] factors; // factors corresponding to data
+
+        private final SubdivisionMesh.BoundaryMode boundaryMode;
+
+        int currPoint = 0;
+        int facePointsEnd = 0;
+        int edgePointsEnd = 0;
+
+        Stencils(int numPoints, SubdivisionMesh.BoundaryMode boundaryMode) {
+            this.numPoints = numPoints;
+            this.controlOffsets = new int[numPoints + 1];
+            this.controlInds = new int[numPoints * 4];
+            this.controlFactors = new float[numPoints * 4];
+            this.offsets = new int[numPoints + 1];
+            this.inds = new int[numPoints * 2];
+            this.factors = new float[numPoints * 2];
+
+            this.boundaryMode = boundaryMode;
+        }
 
-        this.controlPoints = controlPointArray.data;
-        this.controlInds = new int[numPoints][];
-        this.controlFactors = new float[numPoints][];
-        this.inds = new int[numPoints][];
-        this.factors = new float[numPoints][];
+        private void addControlTerm(int index, float factor) {
+            int i = controlOffsets[currPoint + 1]++;
+            if (i == controlInds.length) {
+                controlInds = Arrays.copyOf(controlInds, i * 2);
+                controlFactors = Arrays.copyOf(controlFactors, i * 2);
+            }
+            controlInds[i] = index;
+            controlFactors[i] = factor;
+        }
 
-        this.boundaryMode = boundaryMode;
+        private void addTerm(int index, float factor) {
+            int i = offsets[currPoint + 1]++;
+            if (i == inds.length) {
+                inds = Arrays.copyOf(inds, i * 2);
+                factors = Arrays.copyOf(factors, i * 2);
+            }
+            inds[i] = index;
+            factors[i] = factor;
+        }
+
+        private void startPoint() {
+            controlOffsets[currPoint + 1] = controlOffsets[currPoint];
+            offsets[currPoint + 1] = offsets[currPoint];
+        }
     }
 
+    public SubdividedPointArray(SymbolicPointArray controlPointArray, int numPoints, SubdivisionMesh.BoundaryMode boundaryMode) {
+        this(controlPointArray, new Stencils(numPoints, boundaryMode));
+    }
 
-    public int addFacePoint(int[] vertices) {
-        controlInds[currPoint] = vertices;
-        controlFactors[currPoint] = new float[vertices.length];
-        Arrays.fill(controlFactors[currPoint], 1.0f/vertices.length);
+    // Evaluates already built stencils on the points of another mesh of the same topology
+    SubdividedPointArray(SymbolicPointArray controlPointArray, Stencils stencils) {
+        super(new float[NUM_COMPONENTS_PER_POINT * stencils.numPoints]);
 
-        inds[currPoint] = new int[0];
-        factors[currPoint] = new float[0];
+        this.controlPoints = controlPointArray.data;
+        this.stencils = stencils;
+    }
 
-        return currPoint++;
+    public int addFacePoint(int[] vertices) {
+        Stencils s = stencils;
+        if (s.currPoint != s.facePointsEnd) {
+            throw new IllegalStateException("Face points must be added before edge and control points");
+        }
+        s.startPoint();
+        for (int vertex : vertices) {
+            s.addControlTerm(vertex, 1.0f/vertices.length);
+        }
+        s.facePointsEnd = s.edgePointsEnd = s.currPoint + 1;
+        return s.currPoint++;
     }
 
     public int addEdgePoint(int[] facePoints, int fromPoint, int toPoint, boolean isBoundary) {
+        Stencils s = stencils;
+        if (s.currPoint != s.edgePointsEnd) {
+            throw new IllegalStateException("Edge points must be added before control points");
+        }
+        s.startPoint();
         if (isBoundary) {
-            controlInds[currPoint] = new int[] {fromPoint, toPoint};
-            controlFactors[currPoint] = new float[] {0.5f, 0.5f};
-
-            inds[currPoint] = new int[0];
-            factors[currPoint] = new float[0];
+            s.addControlTerm(fromPoint, 0.5f);
+            s.addControlTerm(toPoint, 0.5f);
         } else {
             int n = facePoints.length + 2;
-            controlInds[currPoint] = new int[] {fromPoint, toPoint};
-            controlFactors[currPoint] = new float[] {1.0f/n, 1.0f/n};
-
-            inds[currPoint] = facePoints;
-            factors[currPoint] = new float[facePoints.length];
-            Arrays.fill(factors[currPoint], 1.0f/n);
+            s.addControlTerm(fromPoint, 1.0f/n);
+            s.addControlTerm(toPoint, 1.0f/n);
+            for (int facePoint : facePoints) {
+                s.addTerm(facePoint, 1.0f/n);
+            }
         }
-        return currPoint++;
+        s.edgePointsEnd = s.currPoint + 1;
+        return s.currPoint++;
     }
 
     public int addControlPoint(int[] facePoints, int[] edgePoints, int[] fromEdgePoints, int[] toEdgePoints, boolean[] isEdgeBoundary, int origPoint, boolean isBoundary, boolean hasInternalEdge) {
+        Stencils s = stencils;
+        s.startPoint();
         if (isBoundary) {
-            if ((boundaryMode == SubdivisionMesh.BoundaryMode.CREASE_EDGES) || hasInternalEdge) {
-                controlInds[currPoint] = new int[] {origPoint};
-                controlFactors[currPoint] = new float[] {0.5f};
-
-                int numBoundaryEdges = 0;
-                for (int i = 0; i < edgePoints.length; i++) {
-                    if (isEdgeBoundary[i]) {
-                        numBoundaryEdges++;
-                    }
-                }
-                inds[currPoint] = new int[numBoundaryEdges];
-                factors[currPoint] = new float[numBoundaryEdges];
-                int boundaryEdgeInd = 0;
+            if ((s.boundaryMode == SubdivisionMesh.BoundaryMode.CREASE_EDGES) || hasInternalEdge) {
+                s.addControlTerm(origPoint, 0.5f);
                 for (int i = 0; i < edgePoints.length; i++) {
                     if (isEdgeBoundary[i]) {
-                        inds[currPoint][boundaryEdgeInd] = edgePoints[i];
-                        factors[currPoint][boundaryEdgeInd] = 0.25f;
-                        boundaryEdgeInd++;
+                        s.addTerm(edgePoints[i], 0.25f);
                     }
                 }
             } else {
-                controlInds[currPoint] = new int[] {origPoint};
-                controlFactors[currPoint] = new float[] {1.0f};
-
-                inds[currPoint] = new int[0];
-                factors[currPoint] = new float[0];
+                s.addControlTerm(origPoint, 1.0f);
             }
         } else {
             int n = facePoints.length;
 
-            controlInds[currPoint] = new int[1 + edgePoints.length*2];
-            controlFactors[currPoint] = new float[1 + edgePoints.length*2];
-            controlInds[currPoint][0] = origPoint;
-            controlFactors[currPoint][0] = (n - 3.0f) / n;
+            s.addControlTerm(origPoint, (n - 3.0f) / n);
             for (int i = 0; i < edgePoints.length; i++) {
-                controlInds[currPoint][1+2*i] = fromEdgePoints[i];
-                controlFactors[currPoint][1+2*i] = 1.0f/(n * n);
-                controlInds[currPoint][1+2*i+1] = toEdgePoints[i];
-                controlFactors[currPoint][1+2*i+1] = 1.0f/(n * n);
+                s.addControlTerm(fromEdgePoints[i], 1.0f/(n * n));
+                s.addControlTerm(toEdgePoints[i], 1.0f/(n * n));
+            }
+            for (int facePoint : facePoints) {
+                s.addTerm(facePoint, 1.0f/(n * n));
             }
-
-            inds[currPoint] = facePoints;
-            factors[currPoint] = new float[facePoints.length];
-            Arrays.fill(factors[currPoint], 1.0f/(n * n));
         }
-        return currPoint++;
+        return s.currPoint++;
     }
 
+    /**
+     * Evaluates face points, then edge points, then control points. Each group
+     * only reads the previous level and the groups before it.
+     */
     @Override
     public void update() {
+        update(0, stencils.facePointsEnd);
+        update(stencils.facePointsEnd, stencils.edgePointsEnd);
+        update(stencils.edgePointsEnd, stencils.currPoint);
+    }
+
+    private void update(int from, int to) {
+        if (to - from < PARALLEL_THRESHOLD) {
+            evaluate(from, to);
+        } else {
+            IntStream.range(0, (to - from + BLOCK_SIZE - 1) / BLOCK_SIZE).parallel()
+                    .forEach(b -> evaluate(from + b * BLOCK_SIZE, Math.min(to, from + (b + 1) * BLOCK_SIZE)));
+        }
+    }
+
+    private void evaluate(int from, int to) {
+        final int[] controlOffsets = stencils.controlOffsets;
+        final int[] controlInds = stencils.controlInds;
+        final float[] controlFactors = stencils.controlFactors;
+        final int[] offsets = stencils.offsets;
+        final int[] inds = stencils.inds;
+        final float[] factors = stencils.factors;
         int ci;
         float f;
         float x, y, z;
-        for (int i = 0; i < numPoints; i++) {
+        for (int i = from; i < to; i++) {
             x = y = z = 0.0f;
-            for (int j = 0; j < controlInds[i].length; j++) {
-                ci = 3 * controlInds[i][j];
-                f = controlFactors[i][j];
+            for (int j = controlOffsets[i]; j < controlOffsets[i + 1]; j++) {
+                ci = 3 * controlInds[j];
+                f = controlFactors[j];
                 x += controlPoints[ci] * f;
                 y += controlPoints[ci + 1] * f;
                 z += controlPoints[ci + 2] * f;
             }
-            for (int j = 0; j < inds[i].length; j++) {
-                ci = 3 * inds[i][j];
-                f = factors[i][j];
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                ci = 3 * inds[j];
+                f = factors[j];
                 x += data[ci] * f;
                 y += data[ci + 1] * f;
                 z += data[ci + 2] * f;
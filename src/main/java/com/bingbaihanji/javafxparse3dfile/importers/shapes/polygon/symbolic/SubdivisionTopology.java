@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2010, 2014, Oracle and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is available and licensed under the following license:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  - Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of Oracle Corporation nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic;
+
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh.BoundaryMode;
+import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh.MapBorderMode;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Subdivision levels shared by all the meshes with the same topology, that is the same
+ * faces, texCoords, smoothing groups, number of points and subdivision modes. The faces,
+ * texCoords, smoothing groups and point stencils of each level, and their flattened stencils,
+ * are built once per topology, only the point values are kept per mesh.
+ *
+ * A topology stays cached while any mesh subdivided with it is reachable, and each of its
+ * levels while any mesh still holds that level, so discarded levels can be reclaimed.
+ * Levels are built outside of any lock; a mesh that needs a level another thread is
+ * building only waits for that level.
+ */
+public final class SubdivisionTopology {
+    private static final Map<Key, TopologyReference> topologies = new HashMap<>();
+    private static final ReferenceQueue<SubdivisionTopology> releasedTopologies = new ReferenceQueue<>();
+
+    private final BoundaryMode boundaryMode;
+    private final MapBorderMode mapBorderMode;
+    // levels 1, 2, ..., completed with null if the build failed
+    private final List<CompletableFuture<Level>> levels = new ArrayList<>(4);
+    // flattened matrix of each level for the last tolerance asked, weakly held like the levels
+    private final List<WeakReference<FlattenedPointArray.Stencils>> flattenedLevels = new ArrayList<>(4);
+
+    // The parts of a level are only weakly held, the meshes using the level keep them alive
+    private static final class Level {
+        final WeakReference<int[][]> faces;
+        final WeakReference<float[]> texCoords;
+        final WeakReference<int[]> faceSmoothingGroups;
+        final WeakReference<SubdividedPointArray.Stencils> stencils;
+
+        Level(SymbolicPolygonMesh mesh) {
+            this.faces = new WeakReference<>(mesh.faces);
+            this.texCoords = new WeakReference<>(mesh.texCoords);
+            this.faceSmoothingGroups = new WeakReference<>(mesh.faceSmoothingGroups);
+            this.stencils = new WeakReference<>(((SubdividedPointArray) mesh.points).stencils);
+        }
+
+        // Returns a mesh of this level evaluated from the given points, or null if the level was reclaimed
+        SymbolicPolygonMesh instantiate(SymbolicPointArray controlPoints) {
+            int[][] faces = this.faces.get();
+            float[] texCoords = this.texCoords.get();
+            int[] faceSmoothingGroups = this.faceSmoothingGroups.get();
+            SubdividedPointArray.Stencils stencils = this.stencils.get();
+            if (faces == null || texCoords == null || faceSmoothingGroups == null || stencils == null) {
+                return null;
+            }
+            return new SymbolicPolygonMesh(new SubdividedPointArray(controlPoints, stencils), texCoords, faces, faceSmoothingGroups);
+        }
+    }
+
+    private SubdivisionTopology(BoundaryMode boundaryMode, MapBorderMode mapBorderMode) {
+        this.boundaryMode = boundaryMode;
+        this.mapBorderMode = mapBorderMode;
+    }
+
+    /**
+     * Returns the topology of the given level 0 mesh subdivided with the given modes.
+     */
+    public static SubdivisionTopology get(SymbolicPolygonMesh mesh, BoundaryMode boundaryMode, MapBorderMode mapBorderMode) {
+        Key key = new Key(mesh, boundaryMode, mapBorderMode);
+        synchronized (topologies) {
+            TopologyReference released;
+            while ((released = (TopologyReference) releasedTopologies.poll()) != null) {
+                topologies.remove(released.key, released);
+            }
+            TopologyReference reference = topologies.get(key);
+            SubdivisionTopology topology = reference == null ? null : reference.get();
+            if (topology == null) {
+                topology = new SubdivisionTopology(boundaryMode, mapBorderMode);
+                // copied so that later edits of the original mesh can't change the stored key
+                Key copy = key.copy();
+                topologies.put(copy, new TopologyReference(copy, topology));
+            }
+            return topology;
+        }
+    }
+
+    /**
+     * Returns the symbolic mesh of the given level, computed from the points of the given
+     * mesh of the level below. The level is only subdivided by the first mesh that needs it,
+     * the others reuse its faces, texCoords and stencils.
+     */
+    public SymbolicPolygonMesh subdivide(SymbolicPolygonMesh mesh, int level) {
+        CompletableFuture<Level> future;
+        CompletableFuture<Level> building = null;
+        synchronized (levels) {
+            if (level < 1 || level > levels.size() + 1) {
+                throw new IllegalArgumentException("Level " + (level - 1) + " isn't built yet");
+            }
+            if (level <= levels.size()) {
+                future = levels.get(level - 1);
+            } else {
+                future = building = new CompletableFuture<>();
+                levels.add(building);
+            }
+        }
+        while (building == null) {
+            Level built = future.join();
+            SymbolicPolygonMesh subdivided = built == null ? null : built.instantiate(mesh.points);
+            if (subdivided != null) {
+                return subdivided;
+            }
+            // reclaimed or failed, rebuilt by the first caller to notice
+            synchronized (levels) {
+                if (levels.get(level - 1) == future) {
+                    building = new CompletableFuture<>();
+                    levels.set(level - 1, building);
+                } else {
+                    future = levels.get(level - 1);
+                }
+            }
+        }
+        Level built = null;
+        try {
+            SymbolicPolygonMesh subdivided = SymbolicSubdivisionBuilder.subdivide(mesh, boundaryMode, mapBorderMode);
+            built = new Level(subdivided);
+            return subdivided;
+        } finally {
+            building.complete(built);
+        }
+    }
+
+    /**
+     * Returns the points of the last of the given meshes, of levels 0, 1, ... of this topology,
+     * computed directly from the points of the first one. The flattened matrix of a level is
+     * built once for all the meshes of the topology.
+     */
+    public FlattenedPointArray flatten(List<SymbolicPolygonMesh> meshes, float tolerance) {
+        int level = meshes.size() - 1;
+        FlattenedPointArray.Stencils stencils;
+        synchronized (flattenedLevels) {
+            while (flattenedLevels.size() <= level) {
+                flattenedLevels.add(null);
+            }
+            WeakReference<FlattenedPointArray.Stencils> reference = flattenedLevels.get(level);
+            stencils = reference == null ? null : reference.get();
+        }
+        if (stencils == null || stencils.tolerance != tolerance) {
+            List<SubdividedPointArray.Stencils> levelStencils = new ArrayList<>(level);
+            for (int i = 1; i <= level; i++) {
+                levelStencils.add(((SubdividedPointArray) meshes.get(i).points).stencils);
+            }
+            stencils = FlattenedPointArray.flatten(meshes.get(0).points.numPoints, levelStencils, tolerance);
+            synchronized (flattenedLevels) {
+                flattenedLevels.set(level, new WeakReference<>(stencils));
+            }
+        }
+        return new FlattenedPointArray(meshes.get(0).points, stencils);
+    }
+
+    private static final class TopologyReference extends WeakReference<SubdivisionTopology> {
+        final Key key;
+
+        TopologyReference(Key key, SubdivisionTopology topology) {
+            super(topology, releasedTopologies);
+            this.key = key;
+        }
+    }
+
+    private static final class Key {
+        final int numPoints;
+        final int[][] faces;
+        final float[] texCoords;
+        final int[] faceSmoothingGroups;
+        final BoundaryMode boundaryMode;
+        final MapBorderMode mapBorderMode;
+        final int hash;
+
+        // Refers to the arrays of the mesh, only for lookups
+        Key(SymbolicPolygonMesh mesh, BoundaryMode boundaryMode, MapBorderMode mapBorderMode) {
+            this.numPoints = mesh.points.numPoints;
+            this.faces = mesh.faces;
+            this.texCoords = mesh.texCoords;
+            this.faceSmoothingGroups = mesh.faceSmoothingGroups;
+            this.boundaryMode = boundaryMode;
+            this.mapBorderMode = mapBorderMode;
+            this.hash = ((Objects.hash(numPoints, boundaryMode, mapBorderMode) * 31
+                    + Arrays.deepHashCode(faces)) * 31
+                    + Arrays.hashCode(texCoords)) * 31
+                    + Arrays.hashCode(faceSmoothingGroups);
+        }
+
+        private Key(int numPoints, int[][] faces, float[] texCoords, int[] faceSmoothingGroups,
+                BoundaryMode boundaryMode, MapBorderMode mapBorderMode, int hash) {
+            this.numPoints = numPoints;
+            this.faces = faces;
+            this.texCoords = texCoords;
+            this.faceSmoothingGroups = faceSmoothingGroups;
+            this.boundaryMode = boundaryMode;
+            this.mapBorderMode = mapBorderMode;
+            this.hash = hash;
+        }
+
+        // A key holding its own copy of the arrays, for storing in the map
+        Key copy() {
+            int[][] facesCopy = new int[faces.length][];
+            for (int f = 0; f < faces.length; f++) {
+                facesCopy[f] = faces[f].clone();
+            }
+            return new Key(numPoints, facesCopy, texCoords.clone(), faceSmoothingGroups.clone(), boundaryMode, mapBorderMode, hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash
+                    && numPoints == other.numPoints
+                    && boundaryMode == other.boundaryMode
+                    && mapBorderMode == other.mapBorderMode
+                    && Arrays.equals(faceSmoothingGroups, other.faceSmoothingGroups)
+                    && Arrays.equals(texCoords, other.texCoords)
+                    && Arrays.deepEquals(faces, other.faces);
+        }
+    }
+}
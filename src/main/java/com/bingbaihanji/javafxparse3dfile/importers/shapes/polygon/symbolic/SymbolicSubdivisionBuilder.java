@@ -34,21 +34,22 @@ package com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.symbolic;
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh;
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh.BoundaryMode;
 import com.bingbaihanji.javafxparse3dfile.importers.shapes.polygon.SubdivisionMesh.MapBorderMode;
-import javafx.geometry.Point2D;
 
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
  *
  * Data structure builder for Catmull Clark subdivision surface
+ *
+ * The topology of the old mesh is kept in a half-edge structure made of primitive arrays.
+ * Half-edge h of face f goes from the previous point of the face to the point at the same
+ * position as h, so face f owns half-edges faceStart[f] to faceStart[f + 1] - 1. Edges are
+ * numbered in the order of their (lower point, upper point) keys.
  */
 public class SymbolicSubdivisionBuilder {
 
     private SymbolicPolygonMesh oldMesh;
-    private Map<Edge, EdgeInfo> edgeInfos;
-    private FaceInfo[] faceInfos;
-    private PointInfo[] pointInfos;
     private SubdividedPointArray points;
     private float[] texCoords;
     private int[] reindex;
@@ -56,6 +57,29 @@ public class SymbolicSubdivisionBuilder {
     private SubdivisionMesh.BoundaryMode boundaryMode;
     private MapBorderMode mapBorderMode;
 
+    // half-edges
+    private int[] faceStart;       // first half-edge of each face, numFaces + 1 entries
+    private int[] heVertex;        // point the half-edge points to
+    private int[] heTexCoord;      // texCoord of heVertex in the face
+    private int[] heFace;          // face owning the half-edge
+    private int[] heNext;          // next half-edge in the face
+    private int[] hePrev;          // previous half-edge in the face
+    private int[] heEdge;          // edge of the half-edge
+    // edges
+    private int[] edgeFrom;        // lower point of the edge
+    private int[] edgeTo;          // upper point of the edge
+    private int[] edgeStart;       // first entry in edgeHalfEdges, numEdges + 1 entries
+    private int[] edgeHalfEdges;   // half-edges of all edges, sorted by edge and face
+    private int[] edgePoint;       // new point of the edge
+    // points
+    private int[] pointEdgeStart;  // first entry in pointEdges, numPoints + 1 entries
+    private int[] pointEdges;      // edges adjacent to each point
+    private int[] pointFaceStart;  // first entry in pointHalfEdges, numPoints + 1 entries
+    private int[] pointHalfEdges;  // half-edges pointing to each point, in face order
+    // faces
+    private int[] facePoint;       // new point of the face
+    private int[] faceTexCoord;    // new texCoord of the face, incremented by 1, 0 reserved for empty
+
     public SymbolicSubdivisionBuilder(SymbolicPolygonMesh oldMesh, BoundaryMode boundaryMode, MapBorderMode mapBorderMode) {
         this.oldMesh = oldMesh;
         this.boundaryMode = boundaryMode;
@@ -65,47 +89,34 @@ public class SymbolicSubdivisionBuilder {
     public SymbolicPolygonMesh subdivide() {
         collectInfo();
 
-        texCoords = new float[(oldMesh.getNumEdgesInFaces() * 3 + oldMesh.faces.length) * 2];
+        int numFaces = oldMesh.faces.length;
+        texCoords = new float[(oldMesh.getNumEdgesInFaces() * 3 + numFaces) * 2];
         int[][] faces = new int[oldMesh.getNumEdgesInFaces()][8];
         int[] faceSmoothingGroups = new int[oldMesh.getNumEdgesInFaces()];
         newTexCoordIndex = 0;
         reindex = new int[oldMesh.points.numPoints]; // indexes incremented by 1, 0 reserved for empty
+        faceTexCoord = new int[numFaces];
 
         // face points first
-        int newFacesInd = 0;
-        for (int f = 0; f < oldMesh.faces.length; f++) {
-            FaceInfo faceInfo = faceInfos[f];
-            int[] oldFaces = oldMesh.faces[f];
-            for (int p = 0; p < oldFaces.length; p += 2) {
-                faces[newFacesInd][4] = getPointNewIndex(faceInfo);
-                faces[newFacesInd][5] = getTexCoordNewIndex(faceInfo);
-                faceSmoothingGroups[newFacesInd] = oldMesh.faceSmoothingGroups[f];
-                newFacesInd++;
+        for (int f = 0; f < numFaces; f++) {
+            for (int h = faceStart[f]; h < faceStart[f + 1]; h++) {
+                faces[h][4] = facePoint[f];
+                faces[h][5] = getTexCoordNewIndex(f);
+                faceSmoothingGroups[h] = oldMesh.faceSmoothingGroups[f];
             }
         }
         // then, add edge points
-        newFacesInd = 0;
-        for (int f = 0; f < oldMesh.faces.length; f++) {
-            FaceInfo faceInfo = faceInfos[f];
-            int[] oldFaces = oldMesh.faces[f];
-            for (int p = 0; p < oldFaces.length; p += 2) {
-                faces[newFacesInd][2] = getPointNewIndex(faceInfo, (p / 2 + 1) % faceInfo.edges.length);
-                faces[newFacesInd][3] = getTexCoordNewIndex(faceInfo, (p / 2 + 1) % faceInfo.edges.length);
-                faces[newFacesInd][6] = getPointNewIndex(faceInfo, p / 2);
-                faces[newFacesInd][7] = getTexCoordNewIndex(faceInfo, p / 2);
-                newFacesInd++;
-            }
+        for (int h = 0; h < heVertex.length; h++) {
+            int next = heNext[h];
+            faces[h][2] = edgePoint[heEdge[next]];
+            faces[h][3] = getEdgeTexCoordNewIndex(next);
+            faces[h][6] = edgePoint[heEdge[h]];
+            faces[h][7] = getEdgeTexCoordNewIndex(h);
         }
         // finally, add control points
-        newFacesInd = 0;
-        for (int f = 0; f < oldMesh.faces.length; f++) {
-            FaceInfo faceInfo = faceInfos[f];
-            int[] oldFaces = oldMesh.faces[f];
-            for (int p = 0; p < oldFaces.length; p += 2) {
-                faces[newFacesInd][0] = getPointNewIndex(oldFaces[p]);
-                faces[newFacesInd][1] = getTexCoordNewIndex(faceInfo, oldFaces[p], oldFaces[p+1]);
-                newFacesInd++;
-            }
+        for (int h = 0; h < heVertex.length; h++) {
+            faces[h][0] = getPointNewIndex(heVertex[h]);
+            faces[h][1] = getControlTexCoordNewIndex(h);
         }
 
         SymbolicPolygonMesh newMesh = new SymbolicPolygonMesh(points, texCoords, faces, faceSmoothingGroups);
@@ -117,132 +128,206 @@ public class SymbolicSubdivisionBuilder {
         return subdivision.subdivide();
     }
 
-    private void addEdge(Edge edge, FaceInfo faceInfo) {
-        EdgeInfo edgeInfo = edgeInfos.get(edge);
-        if (edgeInfo == null) {
-            edgeInfo = new EdgeInfo();
-            edgeInfo.edge = edge;
-            edgeInfos.put(edge, edgeInfo);
+    private void collectInfo() {
+        int[][] oldFaces = oldMesh.faces;
+        int numFaces = oldFaces.length;
+        int numPoints = oldMesh.points.numPoints;
+        int numHalfEdges = oldMesh.getNumEdgesInFaces();
+
+        faceStart = new int[numFaces + 1];
+        heVertex = new int[numHalfEdges];
+        heTexCoord = new int[numHalfEdges];
+        heFace = new int[numHalfEdges];
+        heNext = new int[numHalfEdges];
+        hePrev = new int[numHalfEdges];
+        int h = 0;
+        for (int f = 0; f < numFaces; f++) {
+            int[] face = oldFaces[f];
+            int n = face.length / 2;
+            faceStart[f] = h;
+            for (int i = 0; i < n; i++, h++) {
+                heVertex[h] = face[i * 2];
+                heTexCoord[h] = face[i * 2 + 1];
+                heFace[h] = f;
+                heNext[h] = i == n - 1 ? h - n + 1 : h + 1;
+                hePrev[h] = i == 0 ? h + n - 1 : h - 1;
+            }
         }
-        edgeInfo.faces.add(faceInfo);
-    }
+        faceStart[numFaces] = h;
 
-    private void addPoint(int point, FaceInfo faceInfo, Edge edge) {
-        PointInfo pointInfo = pointInfos[point];
-        if (pointInfo == null) {
-            pointInfo = new PointInfo();
-            pointInfos[point] = pointInfo;
+        // Sort half-edges by their packed (lower point, upper point, half-edge) key: bucket
+        // them by the lower point, then sort each bucket by upper point and half-edge
+        int[] bucketStart = new int[numPoints + 1];
+        for (h = 0; h < numHalfEdges; h++) {
+            bucketStart[lowerPoint(h) + 1]++;
         }
-        pointInfo.edges.add(edge);
-        pointInfo.faces.add(faceInfo);
-    }
-
-    private void addPoint(int point, Edge edge) {
-        PointInfo pointInfo = pointInfos[point];
-        if (pointInfo == null) {
-            pointInfo = new PointInfo();
-            pointInfos[point] = pointInfo;
+        for (int p = 0; p < numPoints; p++) {
+            bucketStart[p + 1] += bucketStart[p];
+        }
+        long[] keys = new long[numHalfEdges];
+        int[] fill = Arrays.copyOf(bucketStart, numPoints);
+        for (h = 0; h < numHalfEdges; h++) {
+            keys[fill[lowerPoint(h)]++] = ((long) upperPoint(h) << 32) | h;
+        }
+        for (int p = 0; p < numPoints; p++) {
+            if (bucketStart[p + 1] - bucketStart[p] > 1) {
+                Arrays.sort(keys, bucketStart[p], bucketStart[p + 1]);
+            }
         }
-        pointInfo.edges.add(edge);
-    }
 
-    private void collectInfo() {
-        edgeInfos = new HashMap<>(oldMesh.faces.length * 2);
-        faceInfos = new FaceInfo[oldMesh.faces.length];
-        pointInfos = new PointInfo[oldMesh.points.numPoints];
+        // Runs of equal keys are the edges, their half-edges are in face order
+        heEdge = new int[numHalfEdges];
+        edgeHalfEdges = new int[numHalfEdges];
+        int[] starts = new int[numHalfEdges + 1];
+        int numEdges = 0;
+        long lastKey = -1;
+        for (int k = 0; k < numHalfEdges; k++) {
+            h = (int) keys[k];
+            long key = ((long) lowerPoint(h) << 32) | upperPoint(h);
+            if (key != lastKey) {
+                starts[numEdges++] = k;
+                lastKey = key;
+            }
+            edgeHalfEdges[k] = h;
+            heEdge[h] = numEdges - 1;
+        }
+        starts[numEdges] = numHalfEdges;
+        edgeStart = Arrays.copyOf(starts, numEdges + 1);
+        edgeFrom = new int[numEdges];
+        edgeTo = new int[numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            int first = edgeHalfEdges[edgeStart[e]];
+            edgeFrom[e] = lowerPoint(first);
+            edgeTo[e] = upperPoint(first);
+        }
 
-        for (int f = 0; f < oldMesh.faces.length; f++) {
-            int[] face = oldMesh.faces[f];
-            int n = face.length / 2;
-            FaceInfo faceInfo = new FaceInfo(n);
-            faceInfos[f] = faceInfo;
-            if (n < 3) {
-                continue;
+        // Edges adjacent to each point
+        pointEdgeStart = new int[numPoints + 1];
+        for (int e = 0; e < numEdges; e++) {
+            pointEdgeStart[edgeFrom[e] + 1]++;
+            if (edgeTo[e] != edgeFrom[e]) {
+                pointEdgeStart[edgeTo[e] + 1]++;
             }
-            int from = face[(n-1) * 2];
-            int texFrom = face[(n-1) * 2 + 1];
-            double fu, fv;
-            double tu, tv;
-            double u = 0, v = 0;
-            fu = oldMesh.texCoords[texFrom * 2];
-            fv = oldMesh.texCoords[texFrom * 2 + 1];
-            for (int i = 0; i < n; i++) {
-                int to = face[i * 2];
-                int texTo = face[i * 2 + 1];
-                tu = oldMesh.texCoords[texTo * 2];
-                tv = oldMesh.texCoords[texTo * 2 + 1];
-                Point2D midTexCoord = new Point2D((fu + tu) / 2, (fv + tv) / 2);
-                Edge edge = new Edge(from, to);
-                faceInfo.edges[i] = edge;
-                faceInfo.edgeTexCoords[i] = midTexCoord;
-                addEdge(edge, faceInfo);
-                addPoint(to, faceInfo, edge);
-                addPoint(from, edge);
-                fu = tu; fv = tv;
-                u += tu / n; v += tv / n;
-                from = to;
-                texFrom = texTo;
+        }
+        for (int p = 0; p < numPoints; p++) {
+            pointEdgeStart[p + 1] += pointEdgeStart[p];
+        }
+        pointEdges = new int[pointEdgeStart[numPoints]];
+        fill = Arrays.copyOf(pointEdgeStart, numPoints);
+        for (int e = 0; e < numEdges; e++) {
+            pointEdges[fill[edgeFrom[e]]++] = e;
+            if (edgeTo[e] != edgeFrom[e]) {
+                pointEdges[fill[edgeTo[e]]++] = e;
             }
-            faceInfo.texCoord = new Point2D(u, v);
         }
 
-        points = new SubdividedPointArray(oldMesh.points, oldMesh.points.numPoints + faceInfos.length + edgeInfos.size(), boundaryMode);
+        // Half-edges pointing to each point, one per adjacent face corner
+        pointFaceStart = new int[numPoints + 1];
+        for (h = 0; h < numHalfEdges; h++) {
+            pointFaceStart[heVertex[h] + 1]++;
+        }
+        for (int p = 0; p < numPoints; p++) {
+            pointFaceStart[p + 1] += pointFaceStart[p];
+        }
+        pointHalfEdges = new int[numHalfEdges];
+        fill = Arrays.copyOf(pointFaceStart, numPoints);
+        for (h = 0; h < numHalfEdges; h++) {
+            pointHalfEdges[fill[heVertex[h]]++] = h;
+        }
+
+        points = new SubdividedPointArray(oldMesh.points, numPoints + numFaces + numEdges, boundaryMode);
 
-        for (int f = 0; f < oldMesh.faces.length; f++) {
-            int[] face = oldMesh.faces[f];
-            int n = face.length / 2;
-            int[] faceVertices = new int[n];
-            for (int i = 0; i < n; i++) {
-                faceVertices[i] = face[i * 2];
+        facePoint = new int[numFaces];
+        for (int f = 0; f < numFaces; f++) {
+            int[] faceVertices = Arrays.copyOfRange(heVertex, faceStart[f], faceStart[f + 1]);
+            facePoint[f] = points.addFacePoint(faceVertices);
+        }
+
+        edgePoint = new int[numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            int[] edgeFacePoints = new int[edgeStart[e + 1] - edgeStart[e]];
+            for (int k = 0; k < edgeFacePoints.length; k++) {
+                edgeFacePoints[k] = facePoint[heFace[edgeHalfEdges[edgeStart[e] + k]]];
             }
-            faceInfos[f].facePoint = points.addFacePoint(faceVertices);
+            edgePoint[e] = points.addEdgePoint(edgeFacePoints, edgeFrom[e], edgeTo[e], isBoundaryEdge(e));
         }
+    }
 
-        for(EdgeInfo edgeInfo : edgeInfos.values()) {
-            int[] edgeFacePoints = new int[edgeInfo.faces.size()];
-            for (int f = 0; f < edgeInfo.faces.size(); f++) {
-                edgeFacePoints[f] = edgeInfo.faces.get(f).facePoint;
+    private int lowerPoint(int halfEdge) {
+        return Math.min(heVertex[hePrev[halfEdge]], heVertex[halfEdge]);
+    }
+
+    private int upperPoint(int halfEdge) {
+        return Math.max(heVertex[hePrev[halfEdge]], heVertex[halfEdge]);
+    }
+
+    /**
+     * an edge is in the boundary if it has only one adjacent face
+     */
+    private boolean isBoundaryEdge(int edge) {
+        return edgeStart[edge + 1] - edgeStart[edge] == 1;
+    }
+
+    /**
+     * A point is in the boundary if any of its adjacent edges is in the boundary
+     */
+    private boolean isBoundaryPoint(int point) {
+        for (int k = pointEdgeStart[point]; k < pointEdgeStart[point + 1]; k++) {
+            if (isBoundaryEdge(pointEdges[k])) {
+                return true;
             }
-            edgeInfo.edgePoint = points.addEdgePoint(edgeFacePoints, edgeInfo.edge.from, edgeInfo.edge.to, edgeInfo.isBoundary());
         }
+        return false;
+    }
+
+    /**
+     * A point is internal if at least one of its adjacent edges is not in the boundary
+     */
+    private boolean hasInternalEdge(int point) {
+        for (int k = pointEdgeStart[point]; k < pointEdgeStart[point + 1]; k++) {
+            if (!isBoundaryEdge(pointEdges[k])) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private int calcControlPoint(int srcPointIndex) {
-        PointInfo pointInfo = pointInfos[srcPointIndex];
         int origPoint = srcPointIndex;
 
-        int[] facePoints = new int[pointInfo.faces.size()];
+        int[] facePoints = new int[pointFaceStart[srcPointIndex + 1] - pointFaceStart[srcPointIndex]];
         for (int f = 0; f < facePoints.length; f++) {
-            facePoints[f] = pointInfo.faces.get(f).facePoint;
+            facePoints[f] = facePoint[heFace[pointHalfEdges[pointFaceStart[srcPointIndex] + f]]];
         }
-        int[] edgePoints = new int[pointInfo.edges.size()];
-        boolean[] isEdgeBoundary = new boolean[pointInfo.edges.size()];
-        int[] fromEdgePoints = new int[pointInfo.edges.size()];
-        int[] toEdgePoints = new int[pointInfo.edges.size()];
-        int i = 0;
-        for (Edge edge : pointInfo.edges) {
-            EdgeInfo edgeInfo = edgeInfos.get(edge);
-            edgePoints[i] = edgeInfo.edgePoint;
-            isEdgeBoundary[i] = edgeInfo.isBoundary();
-            fromEdgePoints[i] = edgeInfo.edge.from;
-            toEdgePoints[i] = edgeInfo.edge.to;
-            i++;
+        int numEdges = pointEdgeStart[srcPointIndex + 1] - pointEdgeStart[srcPointIndex];
+        int[] edgePoints = new int[numEdges];
+        boolean[] isEdgeBoundary = new boolean[numEdges];
+        int[] fromEdgePoints = new int[numEdges];
+        int[] toEdgePoints = new int[numEdges];
+        for (int i = 0; i < numEdges; i++) {
+            int edge = pointEdges[pointEdgeStart[srcPointIndex] + i];
+            edgePoints[i] = edgePoint[edge];
+            isEdgeBoundary[i] = isBoundaryEdge(edge);
+            fromEdgePoints[i] = edgeFrom[edge];
+            toEdgePoints[i] = edgeTo[edge];
         }
-        int destPointIndex = points.addControlPoint(facePoints, edgePoints, fromEdgePoints, toEdgePoints, isEdgeBoundary, origPoint, pointInfo.isBoundary(), pointInfo.hasInternalEdge());
+        int destPointIndex = points.addControlPoint(facePoints, edgePoints, fromEdgePoints, toEdgePoints, isEdgeBoundary, origPoint, isBoundaryPoint(srcPointIndex), hasInternalEdge(srcPointIndex));
         return destPointIndex;
     }
 
-    private void calcControlTexCoord(FaceInfo faceInfo, int srcPointIndex, int srcTexCoordIndex, int destTexCoordIndex){
-        PointInfo pointInfo = pointInfos[srcPointIndex];
+    private void calcControlTexCoord(int halfEdge, int destTexCoordIndex) {
+        int srcPointIndex = heVertex[halfEdge];
+        int srcTexCoordIndex = heTexCoord[halfEdge];
         boolean pointBelongsToCrease = oldMesh.points instanceof OriginalPointArray;
-        if ((mapBorderMode == MapBorderMode.SMOOTH_ALL && (pointInfo.isBoundary() || pointBelongsToCrease)) ||
-                (mapBorderMode == MapBorderMode.SMOOTH_INTERNAL && !pointInfo.hasInternalEdge())) {
+        if ((mapBorderMode == MapBorderMode.SMOOTH_ALL && (isBoundaryPoint(srcPointIndex) || pointBelongsToCrease)) ||
+                (mapBorderMode == MapBorderMode.SMOOTH_INTERNAL && !hasInternalEdge(srcPointIndex))) {
             double u = oldMesh.texCoords[srcTexCoordIndex * 2] / 2;
             double v = oldMesh.texCoords[srcTexCoordIndex * 2 + 1] / 2;
-            for (int i = 0; i < faceInfo.edges.length; i++) {
-                if ((faceInfo.edges[i].to == srcPointIndex) || (faceInfo.edges[i].from == srcPointIndex)) {
-                    u += faceInfo.edgeTexCoords[i].getX() / 4;
-                    v += faceInfo.edgeTexCoords[i].getY() / 4;
+            int f = heFace[halfEdge];
+            for (int h = faceStart[f]; h < faceStart[f + 1]; h++) {
+                if ((heVertex[h] == srcPointIndex) || (heVertex[hePrev[h]] == srcPointIndex)) {
+                    u += edgeMidTexCoord(h, 0) / 4;
+                    v += edgeMidTexCoord(h, 1) / 4;
                 }
             }
             texCoords[destTexCoordIndex * 2] = (float) u;
@@ -253,6 +338,15 @@ public class SymbolicSubdivisionBuilder {
         }
     }
 
+    /**
+     * Returns a component of the texCoord in the middle of the half-edge
+     */
+    private double edgeMidTexCoord(int halfEdge, int component) {
+        double from = oldMesh.texCoords[heTexCoord[hePrev[halfEdge]] * 2 + component];
+        double to = oldMesh.texCoords[heTexCoord[halfEdge] * 2 + component];
+        return (from + to) / 2;
+    }
+
     private int getPointNewIndex(int srcPointIndex) {
         int destPointIndex = reindex[srcPointIndex] - 1;
         if (destPointIndex == -1) {
@@ -262,130 +356,37 @@ public class SymbolicSubdivisionBuilder {
         return destPointIndex;
     }
 
-    private int getPointNewIndex(FaceInfo faceInfo, int edgeInd) {
-        Edge edge = faceInfo.edges[edgeInd];
-        EdgeInfo edgeInfo = edgeInfos.get(edge);
-        return edgeInfo.edgePoint;
-    }
-
-    private int getPointNewIndex(FaceInfo faceInfo) {
-        return faceInfo.facePoint;
-    }
-
-    private int getTexCoordNewIndex(FaceInfo faceInfo, int srcPointIndex, int srcTexCoordIndex) {
+    private int getControlTexCoordNewIndex(int halfEdge) {
         int destTexCoordIndex = newTexCoordIndex;
         newTexCoordIndex++;
-        calcControlTexCoord(faceInfo, srcPointIndex, srcTexCoordIndex, destTexCoordIndex);
+        calcControlTexCoord(halfEdge, destTexCoordIndex);
         return destTexCoordIndex;
     }
 
-    private int getTexCoordNewIndex(FaceInfo faceInfo, int edgeInd) {
+    private int getEdgeTexCoordNewIndex(int halfEdge) {
         int destTexCoordIndex = newTexCoordIndex;
         newTexCoordIndex++;
-        texCoords[destTexCoordIndex * 2] = (float) faceInfo.edgeTexCoords[edgeInd].getX();
-        texCoords[destTexCoordIndex * 2 + 1] = (float) faceInfo.edgeTexCoords[edgeInd].getY();
+        texCoords[destTexCoordIndex * 2] = (float) edgeMidTexCoord(halfEdge, 0);
+        texCoords[destTexCoordIndex * 2 + 1] = (float) edgeMidTexCoord(halfEdge, 1);
         return destTexCoordIndex;
     }
 
-    private int getTexCoordNewIndex(FaceInfo faceInfo) {
-        int destTexCoordIndex = faceInfo.newTexCoordIndex - 1;
+    private int getTexCoordNewIndex(int face) {
+        int destTexCoordIndex = faceTexCoord[face] - 1;
         if (destTexCoordIndex == -1) {
             destTexCoordIndex = newTexCoordIndex;
-            faceInfo.newTexCoordIndex = destTexCoordIndex + 1;
+            faceTexCoord[face] = destTexCoordIndex + 1;
             newTexCoordIndex++;
-            texCoords[destTexCoordIndex * 2] = (float) faceInfo.texCoord.getX();
-            texCoords[destTexCoordIndex * 2 + 1] = (float) faceInfo.texCoord.getY();
-        }
-        return destTexCoordIndex;
-    }
-
-    private static class Edge {
-        int from, to;
-
-        public Edge(int from, int to) {
-            this.from = Math.min(from, to);
-            this.to = Math.max(from, to);
-        }
-
-        @Override
-        public int hashCode() {
-            int hash = 7;
-            hash = 41 * hash + this.from;
-            hash = 41 * hash + this.to;
-            return hash;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            final Edge other = (Edge) obj;
-            if (this.from != other.from) {
-                return false;
-            }
-            if (this.to != other.to) {
-                return false;
-            }
-            return true;
-        }
-    }
-
-    private static class EdgeInfo {
-        Edge edge;
-        int edgePoint;
-        List<FaceInfo> faces = new ArrayList<>(2);
-
-        /**
-         * an edge is in the boundary if it has only one adjacent face
-         */
-        public boolean isBoundary() {
-            return faces.size() == 1;
-        }
-    }
-
-    private class PointInfo {
-        List<FaceInfo> faces = new ArrayList<>(4);
-        Set<Edge> edges = new HashSet<>(4);
-
-        /**
-         * A point is in the boundary if any of its adjacent edges is in the boundary
-         */
-        public boolean isBoundary() {
-            for (Edge edge : edges) {
-                EdgeInfo edgeInfo = edgeInfos.get(edge);
-                if (edgeInfo.isBoundary())
-                    return true;
-            }
-            return false;
-        }
-
-        /**
-         * A point is internal if at least one of its adjacent edges is not in the boundary
-         */
-        public boolean hasInternalEdge() {
-            for (Edge edge : edges) {
-                EdgeInfo edgeInfo = edgeInfos.get(edge);
-                if (!edgeInfo.isBoundary())
-                    return true;
+            // average of the face texCoords, accumulated in face order
+            int n = faceStart[face + 1] - faceStart[face];
+            double u = 0, v = 0;
+            for (int h = faceStart[face]; h < faceStart[face + 1]; h++) {
+                u += oldMesh.texCoords[heTexCoord[h] * 2] / n;
+                v += oldMesh.texCoords[heTexCoord[h] * 2 + 1] / n;
             }
-            return false;
-        }
-    }
-
-    private static class FaceInfo {
-        int facePoint;
-        Point2D texCoord;
-        int newTexCoordIndex;
-        Edge[] edges;
-        Point2D[] edgeTexCoords;
-
-        public FaceInfo(int n) {
-            edges = new Edge[n];
-            edgeTexCoords = new Point2D[n];
+            texCoords[destTexCoordIndex * 2] = (float) u;
+            texCoords[destTexCoordIndex * 2 + 1] = (float) v;
         }
+        return destTexCoordIndex;
     }
-}
\ No newline at end of file
+}